@@ -0,0 +1,64 @@
+// An expression that evaluates with primitive floats, made by an ExpressionCompiler.
+
+package org.hafermath.expression;
+
+import java.util.Map;
+
+public abstract class CompiledExpression {
+
+	private final SymbolTable symbols; // The table the variables have their slots in.
+	private final int[] slots; // The slots of the variables, each one once.
+
+	// Constructor.
+	protected CompiledExpression(SymbolTable symbols, int[] slots) {
+		this.symbols = symbols;
+		this.slots = slots;
+	}
+
+	// Evaluate the expression. env holds the value of each variable at its slot in the symbol table.
+	public abstract float eval(float[] env);
+
+	// Evaluate the expression with the values of the expressions in a map, the same way
+	// VariableExpression.evaluate does. Variables that aren't in the map are 0.
+	public float eval(Map<String, Expression> varMap) {
+		int maxSlot = -1;
+		for (int i = 0; i < slots.length; i++)
+			maxSlot = Math.max(maxSlot, slots[i]);
+		float[] env = new float[maxSlot + 1];
+		for (int i = 0; i < slots.length; i++) {
+			Expression e = varMap.get(symbols.getName(slots[i]));
+			if (e != null)
+				env[slots[i]] = e.getValue();
+		}
+		return eval(env);
+	}
+
+	// Get the symbol table the variables have their slots in.
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	// Get the slots of the variables, in the order they first appear in the expression.
+	public int[] getVariableSlots() {
+		return slots.clone();
+	}
+
+	// Get the names of the variables, in the order they first appear in the expression.
+	public String[] getVariableNames() {
+		String[] names = new String[slots.length];
+		for (int i = 0; i < slots.length; i++)
+			names[i] = symbols.getName(slots[i]);
+		return names;
+	}
+
+	// The power operator, as OperatorToken does it. Generated code calls this.
+	protected static float pow(float value1, float value2) {
+		return (float) Math.pow(value1, value2);
+	}
+
+	// The root operator, as OperatorToken does it. Generated code calls this.
+	protected static float root(float value1, float value2) {
+		return (float) Math.pow(value1, 1.0 / value2);
+	}
+
+}
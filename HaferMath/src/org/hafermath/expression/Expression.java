@@ -17,36 +17,13 @@ public interface Expression {
 			this.type = type;
 		}
 		
+		public byte getType() {
+			return type;
+		}
+		
 		public float operate(float value1, float value2) {
-			// Add
-			if (type == 0)
-				return value1 + value2;
-			// Subtract
-			if (type == 1)
-				return value1 - value2;
-			// Multiply
-			if (type == 2)
-				return value1 * value2;
-			// Divide
-			if (type == 3)
-				return value1 / value2;
-			// Power
-			if (type == 4)
-				return (float) Math.pow(value1, value2);
-			// Modulus
-			if (type == 5)
-				return value1 % value2;
-			// Max
-			if (type == 6)
-				return Math.max(value1, value2);
-			// Min
-			if (type == 7)
-				return Math.min(value1, value2);
-			// Root
-			if (type == 8)
-				return (float) Math.pow(value1, 1.0 / value2);
-			// Unknown
-			return 0;
+			// Unknown operators give 0.
+			return ExpressionProgram.operate(type, value1, value2);
 		}
 		
 		@Override
@@ -70,18 +47,32 @@ public interface Expression {
 	public static final class NumberToken extends Token {
 		
 		private float number;
+		private double doubleNumber; // The number as it was written, for expressions that evaluate with doubles or longs.
 		
 		public NumberToken(float number) {
 			this.number = number;
+			this.doubleNumber = number;
+		}
+		
+		public NumberToken(double number) {
+			this.number = (float) number;
+			this.doubleNumber = number;
 		}
 		
 		public float getNumber() {
 			return number;
 		}
 		
+		public double getDoubleNumber() {
+			return doubleNumber;
+		}
+		
 		@Override
 		public String toString() {
-			return "" + number;
+			// Numbers that are floats print the way they always have.
+			if (doubleNumber == number || Double.isNaN(doubleNumber))
+				return "" + number;
+			return "" + doubleNumber;
 		}
 	}
 	
@@ -2,9 +2,7 @@
 
 package org.hafermath.expression;
 
-import java.util.ArrayDeque;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
 
 import org.hafermath.expression.ConstantExpression;
 import org.hafermath.expression.VariableExpression;
@@ -13,168 +11,225 @@ import static org.hafermath.expression.Expression.*;
 
 public class ExpressionBuilder {
 
+	// The type of numbers that the expressions a builder makes evaluate with.
+	public enum Mode {
+		FLOAT, // VariableExpressions, or ConstantExpressions if there are no variables.
+		DOUBLE, // DoubleExpressions. Numbers keep the precision they are written with.
+		LONG, // LongExpressions. Numbers must be integers.
+	}
+
+	// The tokens the builder understands. It scans strings by hand, so these are for code that matches tokens itself.
 	public static final String NUMBER_REGEX = "\\-?(\\d*\\.)?\\d+";
 	public static final String VARIABLE_REGEX = "[A-Za-z]\\w*";
-	public static final String OPERATOR_REGEX = "\\+|\\-|\\*|/|\\^|%|>|<|\\^1/";
+	public static final String OPERATOR_REGEX = "\\^1/|\\+|\\-|\\*|/|\\^|%|>|<";
 	public static final String PARENTHESIS_REGEX = "\\(|\\)";
 	public static final String TOKEN_REGEX = NUMBER_REGEX + '|' +
 			VARIABLE_REGEX + '|' + OPERATOR_REGEX + '|' + PARENTHESIS_REGEX;
 
-	private Matcher numberMatcher;
-	private Matcher tokenMatcher;
+	// The precedence of each operator type. Operators with higher precedence are applied first,
+	// and operators with equal precedence are applied from left to right.
+	private static final int[] PRECEDENCE = {
+		1, 1, 2, 2, 3, 2, 0, 0, 3,
+	};
+
+	// A token for each operator type. Tokens never change, so expressions can share them.
+	private static final OperatorToken[] OPERATOR_TOKENS = new OperatorToken[OPERATORS.length];
+	static {
+		for (byte i = 0; i < OPERATOR_TOKENS.length; i++)
+			OPERATOR_TOKENS[i] = new OperatorToken(i);
+	}
+
+	private final SymbolTable symbols; // The table variables are given slots in.
+	private ExpressionOptimizer optimizer; // Simplifies the tokens of expressions, or null if they aren't simplified.
+	private ExpressionCache cache; // Remembers the expressions that have been made, or null if they aren't remembered.
+	private Mode mode; // The type of numbers expressions evaluate with.
+	private final ArrayList<Token> tokens; // The RPN tokens of the expression being parsed.
+	private String expString; // The string being parsed.
+	private int position; // The index in expString of the next character to scan.
+	private boolean afterParenthesis; // Whether the last operand that was parsed ended with a right parenthesis.
 	
-	// Constructor.
+	// Constructor. Variables are given slots in the default symbol table.
 	public ExpressionBuilder() {
-		numberMatcher = Pattern.compile(NUMBER_REGEX).matcher("");
-		tokenMatcher = Pattern.compile(TOKEN_REGEX).matcher("");
+		this(SymbolTable.getDefaultTable());
 	}
 	
-	// Make tokens from a string that can be turned into RPN.
-	private String[] makeRawTokens(String expString) {
-		// Count the number of tokens in the string.
-		int numTokens = 0;
-		tokenMatcher.reset(expString);
-		while (tokenMatcher.find()) {
-			numTokens++;
-		}
-		
-		// Get the tokens from the string.
-		tokenMatcher.reset();
-		String rawTokens[] = new String[numTokens];
-		int tI = 0;
-		while (tokenMatcher.find()) {
-			rawTokens[tI++] = tokenMatcher.group();
-		}
-		
-		// We need to deal with implied multiplication.
-		// Count the number of left parenthesis that don't have operators before them, ex. 3(x + 2)
-		int numOperatorlessParens = 0;
-		for (int i = 1; i < rawTokens.length; i++) {
-			if (rawTokens[i].equals(LEFT_PAREN)) {
-				if (!rawTokens[i].equals(LEFT_PAREN) && operatorType(rawTokens[i - 1]) == -1) {
-					numOperatorlessParens++;
-				}
-			}
-		}
-
-		// Add in MULTIPLY where there wasn't one.
-		if (numOperatorlessParens > 0) {
-			// Make the new array.
-			String[] oldInfixTokens = rawTokens;
-			rawTokens = new String[oldInfixTokens.length + numOperatorlessParens];
-
-			// The first token is always the same.
-			rawTokens[0] = oldInfixTokens[0];
-
-			// Loop through the rest, adding MULTIPLY.
-			for (int offset = 0, i = 1; i < oldInfixTokens.length; i++) {
-				if (oldInfixTokens[i].equals(LEFT_PAREN)) {
-					if (operatorType(oldInfixTokens[i - 1]) == -1) {
-						rawTokens[i + offset] = MULTIPLY;
-						offset++;
-					}
-
-				}
-				rawTokens[i + offset] = oldInfixTokens[i];
-			}
-		}
-		
-		// Return the tokens.
-		return rawTokens;
+	// Constructor. Variables are given slots in the given symbol table.
+	public ExpressionBuilder(SymbolTable symbols) {
+		this.symbols = symbols;
+		optimizer = ExpressionOptimizer.getDefaultOptimizer();
+		cache = ExpressionCache.getDefaultCache();
+		mode = Mode.FLOAT;
+		tokens = new ArrayList<Token>();
 	}
 	
-	// Use a shunting yard to reorder infix tokens into RPN tokens.
-	private String[] shuntingYard(String[] infixTokens) {
-		// Count the number of parenthesis.
-		int numParens = 0;
-		for (int i = 0; i < infixTokens.length; i++) {
-			if (infixTokens[i].equals(LEFT_PAREN) || infixTokens[i].equals(RIGHT_PAREN))
-				numParens++;
-		}
+	// Parse operators and their operands, writing them out as RPN, until an operator with a precedence
+	// lower than minPrecedence, a right parenthesis, or the end of the string is reached.
+	private void parseOperators(int minPrecedence) {
+		parseOperand();
+		while (true) {
+			skipWhitespace();
+			if (position == expString.length())
+				return;
 
-		// Make the output array. It has a length of infixTokens.length - numParens.
-		String[] rpnTokens = new String[infixTokens.length - numParens];
+			// An operand right after another one, as in 3(x + 2), 2x or (x + 1)2, is multiplied by it.
+			// Numbers and variables can't be followed by a number, so that typos like 2 3 or 1.5.5 are errors.
+			byte opType = scanOperator();
+			boolean implied = false;
+			if (opType == -1) {
+				char c = expString.charAt(position);
+				if (!startsOperand(c))
+					return;
+				if (c != '(' && !isLetter(c) && !afterParenthesis)
+					throw syntaxError("Expected an operator");
+				opType = ExpressionProgram.MULTIPLY;
+				implied = true;
+			}
+			if (PRECEDENCE[opType] < minPrecedence)
+				return;
+			if (!implied)
+				position += (opType == ExpressionProgram.ROOT) ? ROOT.length() : 1;
 
-		// Make the operator stack.
-		ArrayDeque<String> operatorStack = new ArrayDeque<String>();
+			// Operators are left associative, so the right operand only takes operators that are applied first.
+			parseOperators(PRECEDENCE[opType] + 1);
+			tokens.add(OPERATOR_TOKENS[opType]);
+		}
+	}
+		
+	// Parse a number, a variable, a negated operand, or an expression in parentheses.
+	private void parseOperand() {
+		skipWhitespace();
+		if (position == expString.length())
+			throw syntaxError("Expected a number, variable, or (");
+		char c = expString.charAt(position);
 
-		// Loop through the tokens to shunting yard them.
-		int q = 0;
-		for (int i = 0; i < infixTokens.length; i++) {
-			// Get the operator type.
-			byte opType = operatorType(infixTokens[i]);
-			
-			// If the token is an operator, just look at Wikipedia.
-			if (opType != -1) {
-				while (operatorStack.size() > 0) {
-					String operator = operatorStack.peek();
-					if (precedence(infixTokens[i], operator) <= 0) {
-						rpnTokens[q] = operatorStack.pop();
-						q++;
-					}
-					else {
-						break;
-					}
-				}
-				operatorStack.push(infixTokens[i]);
-			}
-			// If the token is a left parenthesis, push it onto the operator stack.
-			else if (infixTokens[i].equals(LEFT_PAREN)) {
-				operatorStack.push(infixTokens[i]);
-			}
-			// If the token is a right parenthesis, pop tokens off the stack until
-			// we reach a left parenthesis.
-			else if (infixTokens[i].equals(RIGHT_PAREN)) {
-				while (operatorStack.size() > 0) {
-					String operator = operatorStack.pop();
-					if (operator.equals(LEFT_PAREN)) {
-						break;
-					}
-					else {
-						rpnTokens[q] = operator;
-						q++;
-					}
-				}
+		if (c == '(') {
+			position++;
+			parseOperators(0);
+			skipWhitespace();
+			if (position == expString.length() || expString.charAt(position) != ')')
+				throw syntaxError("Expected )");
+			position++;
+			afterParenthesis = true;
+		}
+		else if (c == '-') {
+			// A minus sign in front of a number is part of it, so -2 ^ 2 is 4. In front of anything
+			// else it negates everything up to the next operator that is applied after ^.
+			if (position + 1 < expString.length() && isNumberStart(expString, position + 1)) {
+				int start = position++;
+				scanNumber();
+				tokens.add(makeNumber(start));
+				afterParenthesis = false;
 			}
-			// If the token is a number or a variable, add it to rpnTokens.
 			else {
-				rpnTokens[q] = infixTokens[i];
-				q++;
+				position++;
+				tokens.add(new NumberToken(-1));
+				parseOperators(PRECEDENCE[ExpressionProgram.POWER]);
+				tokens.add(OPERATOR_TOKENS[ExpressionProgram.MULTIPLY]);
 			}
 		}
-
-		// Once all tokens are read, pop the stack onto the output array.
-		while (operatorStack.size() > 0) {
-			rpnTokens[q] = operatorStack.pop();
-			q++;
+		else if (isNumberStart(expString, position)) {
+			int start = position;
+			scanNumber();
+			tokens.add(makeNumber(start));
+			afterParenthesis = false;
+		}
+		else if (isLetter(c)) {
+			int start = position++;
+			while (position < expString.length() && isWordChar(expString.charAt(position)))
+				position++;
+			tokens.add(new VariableToken(expString.substring(start, position)));
+			afterParenthesis = false;
+		}
+		else
+			throw syntaxError("Expected a number, variable, or (");
+	}
+	
+	// Get the type of the operator at the position without moving past it. Returns -1 if there isn't one there.
+	private byte scanOperator() {
+		switch (expString.charAt(position)) {
+			case '+': return ExpressionProgram.ADD;
+			case '-': return ExpressionProgram.SUBTRACT;
+			case '*': return ExpressionProgram.MULTIPLY;
+			case '/': return ExpressionProgram.DIVIDE;
+			case '%': return ExpressionProgram.MODULUS;
+			case '>': return ExpressionProgram.MAX;
+			case '<': return ExpressionProgram.MIN;
+			case '^': return expString.startsWith(ROOT, position) ? ExpressionProgram.ROOT : ExpressionProgram.POWER;
+			default: return -1;
 		}
-		
-		// Return the RPN tokens.
-		return rpnTokens;
 	}
 	
-	// Make tokens from raw tokens.
-	private Token[] makeTokens(String[] rawTokens) {
-		Token[] tokens = new Token[rawTokens.length];
+	// Move past the digits of a number, and a decimal point and the digits after it.
+	private void scanNumber() {
+		while (position < expString.length() && isDigit(expString.charAt(position)))
+			position++;
+		if (position + 1 < expString.length() && expString.charAt(position) == '.' && isDigit(expString.charAt(position + 1))) {
+			position++;
+			while (position < expString.length() && isDigit(expString.charAt(position)))
+				position++;
+		}
+	}
 		
-		for (int i = 0; i < rawTokens.length; i++) {
-			// Check if the token is an operator.
-			byte opType = operatorType(rawTokens[i]);
-			if (opType != -1) {
-				tokens[i] = new OperatorToken(opType);
-				continue;
-			}
-			// Check if the token is a number.
-			numberMatcher.reset(rawTokens[i]);
-			if (numberMatcher.matches()) {
-				tokens[i] = new NumberToken(Float.parseFloat(rawTokens[i]));
-				continue;
-			}
-			// If it is neither an operator or a number, assume it is a variable.
-			tokens[i] = new VariableToken(rawTokens[i]);
+	// Make the token of the number that was just scanned, with the precision of the mode.
+	private NumberToken makeNumber(int start) {
+		String number = expString.substring(start, position);
+		switch (mode) {
+			case DOUBLE:
+				return new NumberToken(Double.parseDouble(number));
+			case LONG:
+				if (number.indexOf('.') != -1) {
+					position = start;
+					throw syntaxError("Expected an integer");
+				}
+				long value;
+				try {
+					value = Long.parseLong(number);
+				}
+				catch (NumberFormatException e) {
+					value = Long.MAX_VALUE;
+				}
+				// Tokens hold numbers as doubles.
+				if (value > ExpressionProgram.MAX_EXACT_LONG || value < -ExpressionProgram.MAX_EXACT_LONG) {
+					position = start;
+					throw syntaxError("Integer too large");
+				}
+				return new NumberToken((double) value);
+			default:
+				return new NumberToken(Float.parseFloat(number));
 		}
+	}
+
+	private void skipWhitespace() {
+		while (position < expString.length() && Character.isWhitespace(expString.charAt(position)))
+			position++;
+	}
 		
-		return tokens;
+	// See if a number starts at an index: a digit, or a decimal point followed by a digit.
+	private static boolean isNumberStart(String s, int index) {
+		char c = s.charAt(index);
+		return isDigit(c) || (c == '.' && index + 1 < s.length() && isDigit(s.charAt(index + 1)));
+	}
+
+	// See if a character can start an operand that is multiplied by the one before it.
+	private static boolean startsOperand(char c) {
+		return c == '(' || isDigit(c) || c == '.' || isLetter(c);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLetter(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+	}
+
+	private static boolean isWordChar(char c) {
+		return isLetter(c) || isDigit(c) || c == '_';
+	}
+
+	// Make the exception for a syntax error at the position.
+	private IllegalArgumentException syntaxError(String message) {
+		return new IllegalArgumentException(message + " at index " + position + " of \"" + expString + "\".");
 	}
 	
 	// Get the type of operator a string represents. Returns -1 if it isn't an operator.
@@ -195,77 +250,104 @@ public class ExpressionBuilder {
 		return false;
 	}
 	
-	// Make an expression from an infix string.
+	// Make an expression from an infix string. If the cache has already seen the string, the expression
+	// is a copy of the one it has. Throws an IllegalArgumentException if the string isn't a valid expression.
 	public Expression makeExpression(String expString) {
-		// Break the string into tokens that can be parsed into RPN.
-		String[] rawTokens = makeRawTokens(expString);
+		if (cache == null)
+			return parseExpression(expString);
+
+		String source = ExpressionCache.normalize(expString);
+		Expression template = cache.get(source, symbols, optimizer, mode);
+		if (template == null) {
+			template = parseExpression(expString);
+			cache.put(source, symbols, optimizer, mode, template);
+		}
+		return template.copy();
+	}
+
+	// Make an expression from an infix string without the cache. The string is scanned once, and the
+	// tokens are written out in RPN as they are parsed.
+	private Expression parseExpression(String expString) {
+		// Parse the string into RPN tokens.
+		this.expString = expString;
+		position = 0;
+		tokens.clear();
+		try {
+			parseOperators(0);
+			if (position != expString.length())
+				throw syntaxError("Unexpected " + expString.charAt(position));
+		}
+		finally {
+			this.expString = null;
+		}
+		Token[] tokens = this.tokens.toArray(new Token[this.tokens.size()]);
+		this.tokens.clear();
 		
-		// Reorder the infix tokens into RPN tokens.
-		rawTokens = shuntingYard(rawTokens);
+		// Simplify the tokens.
+		if (optimizer != null)
+			tokens = optimizer.optimize(tokens, mode);
 		
-		// Make tokens from the raw tokens.
-		Token[] tokens = makeTokens(rawTokens);
+		// Expressions that evaluate with doubles or longs are evaluated once if there are no variables,
+		// so that their value is ready.
+		if (mode == Mode.DOUBLE) {
+			DoubleExpression expression = new DoubleExpression(tokens, symbols);
+			if (!hasVariables(tokens))
+				expression.evaluate((double[])null);
+			return expression;
+		}
+		if (mode == Mode.LONG) {
+			LongExpression expression = new LongExpression(tokens, symbols);
+			if (!hasVariables(tokens))
+				expression.evaluate((long[])null);
+			return expression;
+		}
 		
 		// If there are no variables, precalculate the value of the expression
 		// and return a constant expression.
 		if (!hasVariables(tokens)) {
-			VariableExpression calc = new VariableExpression(tokens);
-			calc.evaluate(null);
+			VariableExpression calc = new VariableExpression(tokens, symbols);
+			calc.evaluate((float[])null);
 			return new ConstantExpression(calc.getValue());
 		}
 		// If there are variables, return a new variable expression.
-		return new VariableExpression(tokens);
+		return new VariableExpression(tokens, symbols);
 	}
 	
-	// Compare the precedence of op1 to op2. -1 if op1 is less precedent, 0 if equal, 1 is op1 is more precedent.
-	private int precedence(String op1, String op2) {
-		// Operators are, in order of precedence: POWER, ROOT, MULTIPLY, DIVIDE, MODULUS, ADD, SUBTRACT, MAX, MIN
-
-		// op1 equals POWER or ROOT
-		if (op1.equals(POWER) || op1.equals(ROOT)) {
-			if (op2.equals(POWER) || op2.equals(ROOT)) {
-				return 0;
-			}
-			else {
-				return 1;
-			}
-		}
-		// op1 equals MULTIPLY, DIVIDE, or MODULUS
-		else if (op1.equals(MULTIPLY) || op1.equals(DIVIDE) || op1.equals(MODULUS)) {
-			if (op2.equals(POWER) || op2.equals(ROOT)) {
-				return -1;
-			}
-			else if (op2.equals(MULTIPLY) || op2.equals(DIVIDE) || op2.equals(MODULUS)) {
-				return 0;
-			}
-			else {
-				return 1;
-			}
-		}
-		// op1 equals ADD or SUBTRACT
-		else if (op1.equals(ADD) || op1.equals(SUBTRACT)) {
-			if (op2.equals(POWER) || op2.equals(ROOT) || op2.equals(MULTIPLY) || op2.equals(DIVIDE) || op2.equals(MODULUS)) {
-				return -1;
-			}
-			else if (op2.equals(ADD) || op2.equals(SUBTRACT)) {
-				return 0;
-			}
-			else {
-				return 1;
-			}
-		}
-		// op1 equals MAX or MIN
-		else {
-			if (op2.equals(POWER) || op2.equals(ROOT) || op2.equals(MULTIPLY) || op2.equals(DIVIDE) || op2.equals(MODULUS) || op2.equals(ADD) || op2.equals(SUBTRACT)) {
-				return -1;
-			}
-			else if (op2.equals(MAX) || op2.equals(MIN)) {
-				return 0;
-			}
-			else {
-				return 1;
-			}
-		}
+	// Get the symbol table variables are given slots in.
+	public SymbolTable getSymbolTable() {
+		return symbols;
 	}
-
+	
+	// Get the optimizer that simplifies the tokens of expressions, or null if they aren't simplified.
+	public ExpressionOptimizer getOptimizer() {
+		return optimizer;
+	}
+	
+	// Set the optimizer that simplifies the tokens of expressions. null turns simplifying off.
+	public void setOptimizer(ExpressionOptimizer optimizer) {
+		this.optimizer = optimizer;
+	}
+	
+	// Get the type of numbers the expressions this makes evaluate with.
+	public Mode getMode() {
+		return mode;
+	}
+	
+	// Set the type of numbers the expressions this makes evaluate with.
+	public void setMode(Mode mode) {
+		if (mode == null)
+			throw new IllegalArgumentException("The mode parameter must not be null.");
+		this.mode = mode;
+	}
+	
+	// Get the cache that remembers the expressions that have been made, or null if they aren't remembered.
+	public ExpressionCache getCache() {
+		return cache;
+	}
+	
+	// Set the cache that remembers the expressions that have been made. null turns caching off.
+	public void setCache(ExpressionCache cache) {
+		this.cache = cache;
+	}
+	
 }
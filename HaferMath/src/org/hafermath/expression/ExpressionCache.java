@@ -0,0 +1,188 @@
+// Remembers the expressions made from strings, so that a string that has been seen before isn't parsed
+// again. The expressions in the cache are templates that are never handed out; each use gets a copy,
+// which shares the tokens and program of the template. May be shared between threads.
+// When the cache is full, the expressions that were added first are removed first.
+
+package org.hafermath.expression;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hafermath.expression.ExpressionBuilder.Mode;
+
+public class ExpressionCache {
+
+	// The number of expressions the default cache holds.
+	public static final int DEFAULT_MAX_SIZE = 4096;
+
+	// Default cache for use singleton-style. ExpressionBuilders use this one unless they are given another.
+	private static final ExpressionCache defaultCache = new ExpressionCache(DEFAULT_MAX_SIZE);
+
+	public static ExpressionCache getDefaultCache() {
+		return defaultCache;
+	}
+
+	// What an expression was made from. Expressions made with different symbol tables, optimizers or modes differ.
+	private static final class Key {
+
+		private final String source; // The normalized string.
+		private final SymbolTable symbols;
+		private final ExpressionOptimizer optimizer;
+		private final Mode mode;
+
+		private Key(String source, SymbolTable symbols, ExpressionOptimizer optimizer, Mode mode) {
+			this.source = source;
+			this.symbols = symbols;
+			this.optimizer = optimizer;
+			this.mode = mode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key)o;
+			return symbols == other.symbols && optimizer == other.optimizer && mode == other.mode && source.equals(other.source);
+		}
+
+		@Override
+		public int hashCode() {
+			return source.hashCode() * 31 + System.identityHashCode(symbols);
+		}
+	}
+
+	private final int maxSize; // The most expressions to hold.
+	private final ConcurrentHashMap<Key, Expression> templates; // The expressions, by what they were made from.
+	private final ConcurrentLinkedQueue<Key> order; // The keys of the expressions, in the order they were added.
+	private final AtomicInteger size; // The number of expressions held.
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
+
+	// Constructor. The cache holds at most maxSize expressions.
+	public ExpressionCache(int maxSize) {
+		if (maxSize < 0)
+			throw new IllegalArgumentException("The maxSize parameter must not be negative.");
+		this.maxSize = maxSize;
+		templates = new ConcurrentHashMap<Key, Expression>();
+		order = new ConcurrentLinkedQueue<Key>();
+		size = new AtomicInteger();
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+	}
+
+	// Normalize an expression string, so that strings that only differ in whitespace at the ends or
+	// in the length of runs of whitespace share an entry. Whitespace inside can change the meaning,
+	// as with "a b" and "ab", so it isn't removed.
+	static String normalize(String source) {
+		int start = 0;
+		int end = source.length();
+		while (start < end && Character.isWhitespace(source.charAt(start)))
+			start++;
+		while (end > start && Character.isWhitespace(source.charAt(end - 1)))
+			end--;
+
+		// Most strings are already normal, so only build a new one if there is a run to collapse.
+		boolean collapse = false;
+		for (int i = start; i < end; i++) {
+			char c = source.charAt(i);
+			if (Character.isWhitespace(c) && (c != ' ' || Character.isWhitespace(source.charAt(i + 1)))) {
+				collapse = true;
+				break;
+			}
+		}
+		if (!collapse)
+			return source.substring(start, end);
+
+		StringBuilder out = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = source.charAt(i);
+			if (!Character.isWhitespace(c))
+				out.append(c);
+			else if (!Character.isWhitespace(source.charAt(i - 1)))
+				out.append(' ');
+		}
+		return out.toString();
+	}
+
+	// Get the template made from a normalized string, or null if the cache doesn't have it.
+	Expression get(String source, SymbolTable symbols, ExpressionOptimizer optimizer, Mode mode) {
+		Expression template = templates.get(new Key(source, symbols, optimizer, mode));
+		if (template != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return template;
+	}
+
+	// Remember the template made from a normalized string, removing the oldest templates if the cache is full.
+	void put(String source, SymbolTable symbols, ExpressionOptimizer optimizer, Mode mode, Expression template) {
+		if (maxSize == 0)
+			return;
+		Key key = new Key(source, symbols, optimizer, mode);
+		if (templates.putIfAbsent(key, template) != null)
+			return;
+		order.add(key);
+		size.incrementAndGet();
+		while (size.get() > maxSize) {
+			Key oldest = order.poll();
+			if (oldest == null)
+				break;
+			if (templates.remove(oldest) != null) {
+				size.decrementAndGet();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	// Remove every expression. The statistics are kept.
+	public void clear() {
+		Key key;
+		while ((key = order.poll()) != null) {
+			if (templates.remove(key) != null)
+				size.decrementAndGet();
+		}
+	}
+
+	// Get the number of expressions held.
+	public int size() {
+		return size.get();
+	}
+
+	// Get the most expressions the cache holds.
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	// Get the number of times an expression was found in the cache.
+	public long getHits() {
+		return hits.get();
+	}
+
+	// Get the number of times an expression wasn't found in the cache and had to be parsed.
+	public long getMisses() {
+		return misses.get();
+	}
+
+	// Get the number of expressions that have been removed to make room for others.
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	// Get the fraction of lookups that were hits, or 0 if there haven't been any.
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return (total == 0) ? 0 : (double)h / total;
+	}
+
+	@Override
+	public String toString() {
+		return "ExpressionCache [size=" + size() + "/" + maxSize + ", hits=" + getHits() + ", misses=" + getMisses() +
+				", evictions=" + getEvictions() + "]";
+	}
+
+}
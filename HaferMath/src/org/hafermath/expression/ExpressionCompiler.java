@@ -0,0 +1,367 @@
+// Compiles variable expressions into JVM classes, so evaluating them is a single method call
+// on primitive floats instead of a walk over their tokens.
+
+package org.hafermath.expression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExpressionCompiler {
+
+	// The largest amount of bytecode a method can have.
+	private static final int MAX_CODE_LENGTH = 65535;
+
+	private static final String SUPER_CLASS = "org/hafermath/expression/CompiledExpression";
+	private static final String CLASS_PREFIX = "org/hafermath/expression/CompiledExpression$";
+	private static final String INIT_DESCRIPTOR = "(Lorg/hafermath/expression/SymbolTable;[I)V";
+
+	// Counts the classes made by all compilers, to give each one its own name.
+	private static final AtomicInteger classCount = new AtomicInteger();
+
+	// Defines the classes of a compiler. Once the compiler and everything it compiled are no longer
+	// used, the loader and its classes can be unloaded.
+	private static final class Loader extends ClassLoader {
+
+		private Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		private Class<?> define(String name, byte[] classFile) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+
+	// Evaluates an expression by running its program. Used when an expression can't be compiled.
+	private static final class Interpreter extends CompiledExpression {
+
+		private final ExpressionProgram program;
+
+		private Interpreter(ExpressionProgram program, SymbolTable symbols, int[] slots) {
+			super(symbols, slots);
+			this.program = program;
+		}
+
+		@Override
+		public float eval(float[] env) {
+			return program.run(env, program.threadStack());
+		}
+	}
+
+	// The constant pool of a class being generated. Entries are shared when they are asked for twice.
+	private static final class ConstantPool {
+
+		private final ByteArrayOutputStream bytes; // The entries, as they are written in the class file.
+		private final DataOutputStream out;
+		private final HashMap<Object, Integer> indices; // The index of each entry, keyed by what it holds.
+		private int nextIndex;
+
+		private ConstantPool() {
+			bytes = new ByteArrayOutputStream();
+			out = new DataOutputStream(bytes);
+			indices = new HashMap<Object, Integer>();
+			nextIndex = 1;
+		}
+
+		private int utf8(String s) throws IOException {
+			String key = "Utf8 " + s;
+			Integer index = indices.get(key);
+			if (index != null)
+				return index;
+			out.writeByte(1);
+			out.writeUTF(s);
+			return add(key);
+		}
+
+		private int classRef(String internalName) throws IOException {
+			String key = "Class " + internalName;
+			Integer index = indices.get(key);
+			if (index != null)
+				return index;
+			int name = utf8(internalName);
+			out.writeByte(7);
+			out.writeShort(name);
+			return add(key);
+		}
+
+		private int methodRef(String owner, String name, String descriptor) throws IOException {
+			String key = "Method " + owner + '.' + name + descriptor;
+			Integer index = indices.get(key);
+			if (index != null)
+				return index;
+			int ownerIndex = classRef(owner);
+			int nameIndex = utf8(name);
+			int descriptorIndex = utf8(descriptor);
+			out.writeByte(12);
+			out.writeShort(nameIndex);
+			out.writeShort(descriptorIndex);
+			int nameAndType = add("NameAndType " + name + descriptor);
+			out.writeByte(10);
+			out.writeShort(ownerIndex);
+			out.writeShort(nameAndType);
+			return add(key);
+		}
+
+		private int floatConstant(float f) throws IOException {
+			// Floats are keyed by their bits so -0 and NaN get entries of their own.
+			Integer key = Float.floatToRawIntBits(f);
+			Integer index = indices.get(key);
+			if (index != null)
+				return index;
+			out.writeByte(4);
+			out.writeFloat(f);
+			return add(key);
+		}
+
+		private int intConstant(int i) throws IOException {
+			String key = "Integer " + i;
+			Integer index = indices.get(key);
+			if (index != null)
+				return index;
+			out.writeByte(3);
+			out.writeInt(i);
+			return add(key);
+		}
+
+		private int add(Object key) {
+			if (nextIndex > 0xFFFF)
+				throw new IllegalStateException("The constant pool is full.");
+			indices.put(key, nextIndex);
+			return nextIndex++;
+		}
+	}
+
+	private final Loader loader; // Defines the classes this compiler makes.
+	private int numCompiled; // The number of expressions that have been compiled to classes.
+	private int numInterpreted; // The number of expressions that could not be compiled.
+
+	// Constructor.
+	public ExpressionCompiler() {
+		loader = new Loader(ExpressionCompiler.class.getClassLoader());
+	}
+
+	// Compile an expression. It is evaluated with the slots of its variables in its symbol table.
+	// If the expression can't be compiled, an interpreter for it is returned instead.
+	public CompiledExpression compile(VariableExpression expression) {
+		ExpressionProgram program = expression.getProgram();
+		SymbolTable symbols = expression.getSymbolTable();
+
+		// Make sure the expression never pops more values than it has pushed.
+		if (!program.isValid())
+			throw new IllegalArgumentException("The expression " + expression + " is not valid RPN.");
+
+		// Find each slot that is used.
+		LinkedHashSet<Integer> usedSlots = new LinkedHashSet<Integer>();
+		for (int i = 0; i < program.slots.length; i++)
+			usedSlots.add(program.slots[i]);
+		int[] slots = new int[usedSlots.size()];
+		int q = 0;
+		for (Integer slot : usedSlots)
+			slots[q++] = slot;
+
+		CompiledExpression compiled = null;
+		try {
+			String className = CLASS_PREFIX + classCount.incrementAndGet();
+			byte[] classFile = generate(className, program);
+			if (classFile != null) {
+				Class<?> c = loader.define(className.replace('/', '.'), classFile);
+				compiled = (CompiledExpression) c.getConstructor(SymbolTable.class, int[].class).newInstance(symbols, slots);
+			}
+		}
+		catch (LinkageError e) {
+			compiled = null;
+		}
+		catch (Exception e) {
+			compiled = null;
+		}
+
+		synchronized (this) {
+			if (compiled != null) {
+				numCompiled++;
+				return compiled;
+			}
+			numInterpreted++;
+		}
+		return new Interpreter(program, symbols, slots);
+	}
+
+	// Get the number of expressions that have been compiled to classes.
+	public synchronized int getNumCompiled() {
+		return numCompiled;
+	}
+
+	// Get the number of expressions that could not be compiled and are interpreted instead.
+	public synchronized int getNumInterpreted() {
+		return numInterpreted;
+	}
+
+	// Generate a class file for an expression. Returns null if the expression is too large for one method.
+	private static byte[] generate(String className, ExpressionProgram program) throws IOException {
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.classRef(className);
+		int superClass = pool.classRef(SUPER_CLASS);
+		int codeName = pool.utf8("Code");
+		int initName = pool.utf8("<init>");
+		int initDescriptor = pool.utf8(INIT_DESCRIPTOR);
+		int superInit = pool.methodRef(SUPER_CLASS, "<init>", INIT_DESCRIPTOR);
+		int evalName = pool.utf8("eval");
+		int evalDescriptor = pool.utf8("([F)F");
+
+		// The constructor passes the symbol table and slots to CompiledExpression.
+		ByteArrayOutputStream initCode = new ByteArrayOutputStream();
+		initCode.write(0x2a); // aload_0
+		initCode.write(0x2b); // aload_1
+		initCode.write(0x2c); // aload_2
+		initCode.write(0xb7); // invokespecial
+		writeShort(initCode, superInit);
+		initCode.write(0xb1); // return
+
+		// eval pushes each number and variable onto the operand stack and applies each operator to the top two values.
+		// Temporaries are local variables after this and env.
+		ByteArrayOutputStream evalCode = new ByteArrayOutputStream();
+		for (int n = 0, v = 0, l = 0, t = 0, i = 0; i < program.code.length; i++) {
+			if (program.code[i] == ExpressionProgram.VARIABLE) {
+				evalCode.write(0x2b); // aload_1
+				writeIntConstant(evalCode, pool, program.slots[v++]);
+				evalCode.write(0x30); // faload
+			}
+			else if (program.code[i] == ExpressionProgram.NUMBER)
+				writeFloatConstant(evalCode, pool, program.numbers[n++]);
+			else if (program.code[i] == ExpressionProgram.STORE) {
+				evalCode.write(0x59); // dup
+				writeLocal(evalCode, 0x38, 2 + t++); // fstore
+			}
+			else if (program.code[i] == ExpressionProgram.LOAD)
+				writeLocal(evalCode, 0x17, 2 + program.loads[l++]); // fload
+			else
+				writeOperator(evalCode, pool, program.code[i]);
+
+			if (evalCode.size() >= MAX_CODE_LENGTH)
+				return null;
+		}
+		evalCode.write(0xae); // freturn
+
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(classBytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0); // Minor version.
+		out.writeShort(50); // Major version: Java 6.
+		out.writeShort(pool.nextIndex);
+		pool.bytes.writeTo(out);
+		out.writeShort(0x0011); // ACC_PUBLIC | ACC_FINAL
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0); // Interfaces.
+		out.writeShort(0); // Fields.
+		out.writeShort(2); // Methods.
+		// The extra two stack slots hold the array and index when a variable is loaded, or a value being stored.
+		writeMethod(out, 0x0001, initName, initDescriptor, codeName, 3, 3, initCode);
+		writeMethod(out, 0x0001, evalName, evalDescriptor, codeName, program.maxStack + 2, 2 + program.numTemps, evalCode);
+		out.writeShort(0); // Attributes.
+		return classBytes.toByteArray();
+	}
+
+	// Write a method with a Code attribute.
+	private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int codeName,
+			int maxStack, int maxLocals, ByteArrayOutputStream code) throws IOException {
+		out.writeShort(access);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1); // Attributes.
+		out.writeShort(codeName);
+		out.writeInt(12 + code.size());
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.size());
+		code.writeTo(out);
+		out.writeShort(0); // Exception table.
+		out.writeShort(0); // Attributes.
+	}
+
+	// Write the instruction for an operator, which takes the top two floats on the stack.
+	private static void writeOperator(ByteArrayOutputStream code, ConstantPool pool, byte op) throws IOException {
+		switch (op) {
+			case ExpressionProgram.ADD: code.write(0x62); return; // fadd
+			case ExpressionProgram.SUBTRACT: code.write(0x66); return; // fsub
+			case ExpressionProgram.MULTIPLY: code.write(0x6a); return; // fmul
+			case ExpressionProgram.DIVIDE: code.write(0x6e); return; // fdiv
+			case ExpressionProgram.POWER: writeInvokeStatic(code, pool.methodRef(SUPER_CLASS, "pow", "(FF)F")); return;
+			case ExpressionProgram.MODULUS: code.write(0x72); return; // frem
+			case ExpressionProgram.MAX: writeInvokeStatic(code, pool.methodRef("java/lang/Math", "max", "(FF)F")); return;
+			case ExpressionProgram.MIN: writeInvokeStatic(code, pool.methodRef("java/lang/Math", "min", "(FF)F")); return;
+			case ExpressionProgram.ROOT: writeInvokeStatic(code, pool.methodRef(SUPER_CLASS, "root", "(FF)F")); return;
+			// Unknown operators give 0, as they do in OperatorToken.
+			default:
+				code.write(0x58); // pop2
+				code.write(0x0b); // fconst_0
+				return;
+		}
+	}
+
+	// Write an instruction that takes a local variable index, widening it if the index needs it.
+	private static void writeLocal(ByteArrayOutputStream code, int opcode, int index) {
+		if (index <= 0xFF) {
+			code.write(opcode);
+			code.write(index);
+		}
+		else {
+			code.write(0xc4); // wide
+			code.write(opcode);
+			writeShort(code, index);
+		}
+	}
+
+	private static void writeInvokeStatic(ByteArrayOutputStream code, int method) {
+		code.write(0xb8); // invokestatic
+		writeShort(code, method);
+	}
+
+	// Write the shortest instruction that pushes a float.
+	private static void writeFloatConstant(ByteArrayOutputStream code, ConstantPool pool, float f) throws IOException {
+		int bits = Float.floatToRawIntBits(f);
+		if (bits == Float.floatToRawIntBits(0f))
+			code.write(0x0b); // fconst_0
+		else if (bits == Float.floatToRawIntBits(1f))
+			code.write(0x0c); // fconst_1
+		else if (bits == Float.floatToRawIntBits(2f))
+			code.write(0x0d); // fconst_2
+		else
+			writeLoadConstant(code, pool.floatConstant(f));
+	}
+
+	// Write the shortest instruction that pushes an int.
+	private static void writeIntConstant(ByteArrayOutputStream code, ConstantPool pool, int i) throws IOException {
+		if (i >= -1 && i <= 5)
+			code.write(0x03 + i); // iconst_<i>
+		else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+			code.write(0x10); // bipush
+			code.write(i);
+		}
+		else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+			code.write(0x11); // sipush
+			writeShort(code, i);
+		}
+		else
+			writeLoadConstant(code, pool.intConstant(i));
+	}
+
+	private static void writeLoadConstant(ByteArrayOutputStream code, int index) {
+		if (index <= 0xFF) {
+			code.write(0x12); // ldc
+			code.write(index);
+		}
+		else {
+			code.write(0x13); // ldc_w
+			writeShort(code, index);
+		}
+	}
+
+	private static void writeShort(ByteArrayOutputStream code, int s) {
+		code.write(s >>> 8);
+		code.write(s);
+	}
+
+}
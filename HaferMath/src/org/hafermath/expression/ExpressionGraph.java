@@ -0,0 +1,323 @@
+// A set of named expressions that refer to each other and to inputs by name. The expressions are
+// kept in an order where each one comes after everything it refers to, and when an input or an
+// expression changes, only the expressions that depend on it are evaluated again.
+// Values are kept as floats. DoubleExpressions and LongExpressions are given the values of the names
+// they refer to as doubles or longs, with the fractions of longs cut off, and their results are
+// rounded to floats.
+
+package org.hafermath.expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.hafermath.expression.Expression.*;
+
+public class ExpressionGraph {
+
+	// A name in the graph, which is either an input or the result of an expression.
+	private static final class Node {
+
+		private final String name;
+		private final int slot; // The slot of the name in the symbol table of the graph.
+		private Expression expression; // The expression that gives this its value, or null if this is an input.
+		private Node[] dependencies; // The nodes the expression refers to, each one once.
+		private final ArrayList<Node> dependents; // The expression nodes that refer to this.
+		private int order; // The index of this in the evaluation order, or -1 if this is an input.
+		private boolean dirty; // Whether the expression needs to be evaluated again.
+
+		private Node(String name, int slot) {
+			this.name = name;
+			this.slot = slot;
+			dependencies = new Node[0];
+			dependents = new ArrayList<Node>();
+			order = -1;
+		}
+	}
+
+	private final SymbolTable symbols; // The table the names have their slots in.
+	private final LinkedHashMap<String, Node> nodes; // Every name in the graph, in the order they were added.
+	private final ArrayList<Node> order; // The expression nodes, each after everything it depends on.
+	private float[] values; // The value of each name, at its slot.
+	private double[] doubleValues; // The values of the names DoubleExpressions refer to, as doubles.
+	private long[] longValues; // The values of the names LongExpressions refer to, as longs.
+	private int firstDirty; // The index in order of the first expression that may be dirty.
+	private int numEvaluated; // The number of times expressions have been evaluated.
+
+	// Constructor.
+	public ExpressionGraph() {
+		this(new SymbolTable());
+	}
+
+	// Constructor. The names in the graph are given slots in the given symbol table.
+	public ExpressionGraph(SymbolTable symbols) {
+		this.symbols = symbols;
+		nodes = new LinkedHashMap<String, Node>();
+		order = new ArrayList<Node>();
+		values = new float[0];
+		doubleValues = new double[0];
+		longValues = new long[0];
+	}
+
+	// Give a name an expression, replacing any expression it had. Names the expression refers to
+	// that aren't in the graph yet are added as inputs with the value 0.
+	// Throws an IllegalArgumentException and leaves the graph unchanged if this would make a cycle.
+	public void put(String name, Expression expression) {
+		if (expression == null)
+			throw new IllegalArgumentException("The expression parameter must not be null.");
+
+		// Expressions are evaluated with the slots of this graph.
+		if (expression instanceof VariableExpression && ((VariableExpression)expression).getSymbolTable() != symbols)
+			expression = new VariableExpression(((VariableExpression)expression).getTokens(), symbols);
+		else if (expression instanceof DoubleExpression && ((DoubleExpression)expression).getSymbolTable() != symbols)
+			expression = new DoubleExpression(((DoubleExpression)expression).getTokens(), symbols);
+		else if (expression instanceof LongExpression && ((LongExpression)expression).getSymbolTable() != symbols)
+			expression = new LongExpression(((LongExpression)expression).getTokens(), symbols);
+
+		int numNodes = nodes.size();
+		Node node = getNode(name);
+		Expression oldExpression = node.expression;
+		Node[] oldDependencies = node.dependencies;
+		node.expression = expression;
+		node.dependencies = findDependencies(expression);
+		try {
+			rebuild();
+		}
+		catch (IllegalArgumentException e) {
+			node.expression = oldExpression;
+			node.dependencies = oldDependencies;
+			// Remove the names this added, which are after the ones that were already in the graph.
+			Iterator<Node> it = nodes.values().iterator();
+			for (int i = 0; it.hasNext(); i++) {
+				it.next();
+				if (i >= numNodes)
+					it.remove();
+			}
+			rebuild();
+			throw e;
+		}
+		markDirty(node);
+	}
+
+	// Remove the expression of a name, making it an input that keeps its last value.
+	public void remove(String name) {
+		Node node = nodes.get(name);
+		if (node == null || node.expression == null)
+			return;
+		node.expression = null;
+		node.dependencies = new Node[0];
+		rebuild();
+		markDependentsDirty(node);
+	}
+
+	// Set the value of an input. The expressions that depend on it are evaluated when a value is next asked for.
+	// Throws an IllegalArgumentException if the name has an expression.
+	public void setInput(String name, float value) {
+		Node node = getNode(name);
+		if (node.expression != null)
+			throw new IllegalArgumentException(name + " is the result of an expression and can't be set.");
+		if (Float.floatToIntBits(values[node.slot]) == Float.floatToIntBits(value))
+			return;
+		values[node.slot] = value;
+		markDependentsDirty(node);
+	}
+
+	// Get the value of a name, evaluating any expressions that need it first. Names not in the graph are 0.
+	public float getValue(String name) {
+		Node node = nodes.get(name);
+		if (node == null)
+			return 0;
+		update();
+		return values[node.slot];
+	}
+
+	// Evaluate every expression that depends on something that has changed, in order.
+	// An expression whose value doesn't change doesn't make the expressions that depend on it dirty.
+	// Returns the number of expressions that were evaluated.
+	public int update() {
+		int count = 0;
+		for (int i = firstDirty; i < order.size(); i++) {
+			Node node = order.get(i);
+			if (!node.dirty)
+				continue;
+			node.dirty = false;
+			count++;
+
+			float value;
+			if (node.expression instanceof VariableExpression) {
+				VariableExpression e = (VariableExpression)node.expression;
+				e.evaluate(values);
+				value = e.getValue();
+			}
+			else if (node.expression instanceof DoubleExpression) {
+				DoubleExpression e = (DoubleExpression)node.expression;
+				for (Node dependency : node.dependencies)
+					doubleValues[dependency.slot] = values[dependency.slot];
+				e.evaluate(doubleValues);
+				value = e.getValue();
+			}
+			else if (node.expression instanceof LongExpression) {
+				LongExpression e = (LongExpression)node.expression;
+				for (Node dependency : node.dependencies)
+					longValues[dependency.slot] = (long) values[dependency.slot];
+				e.evaluate(longValues);
+				value = e.getValue();
+			}
+			else
+				value = node.expression.getValue();
+
+			if (Float.floatToIntBits(values[node.slot]) != Float.floatToIntBits(value)) {
+				values[node.slot] = value;
+				for (int q = 0; q < node.dependents.size(); q++)
+					node.dependents.get(q).dirty = true;
+			}
+		}
+		firstDirty = order.size();
+		numEvaluated += count;
+		return count;
+	}
+
+	// Get the names that have expressions, in the order they are evaluated in.
+	public List<String> getOrder() {
+		ArrayList<String> names = new ArrayList<String>(order.size());
+		for (Node node : order)
+			names.add(node.name);
+		return names;
+	}
+
+	// Get the names of the expressions that refer to a name directly.
+	public List<String> getDependents(String name) {
+		ArrayList<String> names = new ArrayList<String>();
+		Node node = nodes.get(name);
+		if (node != null) {
+			for (Node dependent : node.dependents)
+				names.add(dependent.name);
+		}
+		return names;
+	}
+
+	// Get the expression of a name, or null if it is an input or isn't in the graph.
+	public Expression getExpression(String name) {
+		Node node = nodes.get(name);
+		return (node != null) ? node.expression : null;
+	}
+
+	// Get the symbol table the names of this graph have their slots in.
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	// Get the number of times expressions have been evaluated by update.
+	public int getNumEvaluated() {
+		return numEvaluated;
+	}
+
+	// Get the node of a name, adding it as an input if it isn't in the graph.
+	private Node getNode(String name) {
+		Node node = nodes.get(name);
+		if (node == null) {
+			node = new Node(name, symbols.getSlot(name));
+			nodes.put(name, node);
+			if (node.slot >= values.length) {
+				values = Arrays.copyOf(values, Math.max(symbols.size(), values.length * 2));
+				doubleValues = new double[values.length];
+				longValues = new long[values.length];
+			}
+		}
+		return node;
+	}
+
+	// Find the nodes an expression refers to.
+	private Node[] findDependencies(Expression expression) {
+		VariableToken[] variables;
+		if (expression instanceof VariableExpression)
+			variables = ((VariableExpression)expression).getVariables();
+		else if (expression instanceof DoubleExpression)
+			variables = ((DoubleExpression)expression).getVariables();
+		else if (expression instanceof LongExpression)
+			variables = ((LongExpression)expression).getVariables();
+		else
+			return new Node[0];
+		ArrayList<Node> dependencies = new ArrayList<Node>();
+		for (VariableToken variable : variables) {
+			Node dependency = getNode(variable.getVariableName());
+			if (!dependencies.contains(dependency))
+				dependencies.add(dependency);
+		}
+		return dependencies.toArray(new Node[dependencies.size()]);
+	}
+
+	// Work out the dependents of every node and the order of the expressions again.
+	// Throws an IllegalArgumentException naming the cycle if the expressions have one.
+	private void rebuild() {
+		for (Node node : nodes.values())
+			node.dependents.clear();
+		for (Node node : nodes.values()) {
+			for (Node dependency : node.dependencies)
+				dependency.dependents.add(node);
+		}
+
+		// Order the expressions with a depth first search. A node that is reached again while
+		// it is still being visited is part of a cycle.
+		ArrayList<Node> newOrder = new ArrayList<Node>();
+		HashMap<Node, Boolean> visited = new HashMap<Node, Boolean>(); // False while visiting, true once done.
+		ArrayList<Node> path = new ArrayList<Node>();
+		for (Node node : nodes.values()) {
+			if (node.expression != null)
+				visit(node, visited, path, newOrder);
+		}
+
+		order.clear();
+		order.addAll(newOrder);
+		for (int i = 0; i < order.size(); i++)
+			order.get(i).order = i;
+		for (Node node : nodes.values()) {
+			if (node.expression == null)
+				node.order = -1;
+		}
+		firstDirty = 0;
+	}
+
+	// Add a node to the order after everything it depends on.
+	private void visit(Node node, HashMap<Node, Boolean> visited, ArrayList<Node> path, ArrayList<Node> newOrder) {
+		Boolean done = visited.get(node);
+		if (done != null) {
+			if (done)
+				return;
+			// Name the nodes of the cycle in the order they refer to each other.
+			StringBuilder cycle = new StringBuilder();
+			for (int i = path.indexOf(node); i < path.size(); i++)
+				cycle.append(path.get(i).name).append(" -> ");
+			cycle.append(node.name);
+			throw new IllegalArgumentException("The expressions have a cycle: " + cycle);
+		}
+
+		visited.put(node, false);
+		path.add(node);
+		for (Node dependency : node.dependencies) {
+			if (dependency.expression != null)
+				visit(dependency, visited, path, newOrder);
+		}
+		path.remove(path.size() - 1);
+		visited.put(node, true);
+		newOrder.add(node);
+	}
+
+	// Mark an expression node as needing to be evaluated.
+	private void markDirty(Node node) {
+		node.dirty = true;
+		if (node.order >= 0 && node.order < firstDirty)
+			firstDirty = node.order;
+	}
+
+	// Mark the expressions that refer to a node directly as needing to be evaluated.
+	// The expressions that depend on them are marked when their values change.
+	private void markDependentsDirty(Node node) {
+		for (int i = 0; i < node.dependents.size(); i++)
+			markDirty(node.dependents.get(i));
+	}
+
+}
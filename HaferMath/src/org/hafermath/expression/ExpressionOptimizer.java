@@ -0,0 +1,244 @@
+// Simplifies the tokens of expressions. Operators on numbers are folded into numbers, operations that
+// don't change a value, like x * 1, are removed, and the numbers of chains of additions or multiplications
+// are combined, so that adding a number to an expression over and over doesn't make it longer. Numbers
+// aren't combined where the result would overflow or underflow, since the chain evaluated in order might not.
+
+package org.hafermath.expression;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hafermath.expression.ExpressionBuilder.Mode;
+
+import static org.hafermath.expression.Expression.*;
+
+public class ExpressionOptimizer {
+
+	// Default optimizer for use singleton-style. Expressions combined with addWith use this one.
+	private static final ExpressionOptimizer defaultOptimizer = new ExpressionOptimizer();
+
+	public static ExpressionOptimizer getDefaultOptimizer() {
+		return defaultOptimizer;
+	}
+
+	// A token and the nodes of its operands, if it is an operator.
+	private static final class Node {
+
+		private final Token token;
+		private final Node left;
+		private final Node right;
+
+		private Node(Token token, Node left, Node right) {
+			this.token = token;
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	private final AtomicLong numTokensIn; // The number of tokens that have been optimized.
+	private final AtomicLong numTokensOut; // The number of tokens they were optimized to.
+
+	// Constructor.
+	public ExpressionOptimizer() {
+		numTokensIn = new AtomicLong();
+		numTokensOut = new AtomicLong();
+	}
+
+	// Optimize RPN tokens of an expression that evaluates with floats. The tokens that are kept are reused.
+	// Invalid RPN is returned as it is. The result evaluates to the same value, except that combining
+	// the numbers of a chain may round differently than evaluating the chain in order would. Numbers
+	// that would overflow to infinity, or underflow to 0 or lose precision, aren't combined.
+	public Token[] optimize(Token[] tokens) {
+		return optimize(tokens, Mode.FLOAT);
+	}
+
+	// Optimize RPN tokens of an expression that evaluates in the given mode. Numbers are folded the way
+	// that mode evaluates them.
+	public Token[] optimize(Token[] tokens, Mode mode) {
+		Token[] optimized = build(tokens, mode);
+		if (optimized == null)
+			optimized = tokens;
+		numTokensIn.addAndGet(tokens.length);
+		numTokensOut.addAndGet(optimized.length);
+		return optimized;
+	}
+
+	// Get the number of tokens that have been optimized.
+	public long getNumTokensIn() {
+		return numTokensIn.get();
+	}
+
+	// Get the number of tokens they were optimized to.
+	public long getNumTokensOut() {
+		return numTokensOut.get();
+	}
+
+	// Get the number of tokens that optimizing has removed.
+	public long getNumTokensRemoved() {
+		return numTokensIn.get() - numTokensOut.get();
+	}
+
+	// Build the tree of the tokens, simplifying each operator as it is added, and write it out as RPN.
+	// Returns null if the tokens aren't valid RPN.
+	private static Token[] build(Token[] tokens, Mode mode) {
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		for (int i = 0; i < tokens.length; i++) {
+			if (tokens[i] instanceof OperatorToken) {
+				if (stack.size() < 2)
+					return null;
+				Node right = stack.pop();
+				Node left = stack.pop();
+				stack.push(simplify((OperatorToken)tokens[i], left, right, mode));
+			}
+			else if (tokens[i] instanceof NumberToken || tokens[i] instanceof VariableToken)
+				stack.push(new Node(tokens[i], null, null));
+			else
+				return null;
+		}
+		if (stack.size() != 1)
+			return null;
+
+		// Write the tree out in post order without recursing, since chains of addWith make deep trees.
+		ArrayDeque<Node> toVisit = new ArrayDeque<Node>();
+		ArrayList<Token> reversed = new ArrayList<Token>();
+		toVisit.push(stack.pop());
+		while (!toVisit.isEmpty()) {
+			Node node = toVisit.pop();
+			reversed.add(node.token);
+			if (node.left != null) {
+				toVisit.push(node.left);
+				toVisit.push(node.right);
+			}
+		}
+		Token[] out = new Token[reversed.size()];
+		for (int i = 0; i < out.length; i++)
+			out[i] = reversed.get(out.length - 1 - i);
+		return out;
+	}
+
+	// Make the node of an operator on two simplified operands, simplifying it.
+	private static Node simplify(OperatorToken operator, Node left, Node right, Mode mode) {
+		byte op = operator.getType();
+
+		// Fold operators on numbers.
+		if (left.token instanceof NumberToken && right.token instanceof NumberToken) {
+			Node folded = fold(op, left, right, mode);
+			if (folded != null)
+				return folded;
+			return new Node(operator, left, right);
+		}
+
+		switch (op) {
+			case ExpressionProgram.ADD:
+				if (isNumber(right, 0))
+					return left;
+				if (isNumber(left, 0))
+					return right;
+				return combine(operator, left, right, mode);
+			case ExpressionProgram.SUBTRACT:
+				if (isNumber(right, 0))
+					return left;
+				break;
+			case ExpressionProgram.MULTIPLY:
+				if (isNumber(right, 1))
+					return left;
+				if (isNumber(left, 1))
+					return right;
+				return combine(operator, left, right, mode);
+			case ExpressionProgram.DIVIDE:
+			case ExpressionProgram.ROOT:
+				if (isNumber(right, 1))
+					return left;
+				break;
+			case ExpressionProgram.POWER:
+				if (isNumber(right, 1))
+					return left;
+				// Anything to the power of 0 is 1, even NaN.
+				if (isNumber(right, 0))
+					return number(1);
+				break;
+		}
+		return new Node(operator, left, right);
+	}
+
+	// Combine the numbers of a chain of an operator that is associative and commutative, so that
+	// (x + 2) + 3 becomes x + 5. Operands that aren't chains are left as they are.
+	private static Node combine(OperatorToken operator, Node left, Node right, Mode mode) {
+		byte op = operator.getType();
+		if (right.token instanceof NumberToken && isOperator(left, op)) {
+			if (left.right.token instanceof NumberToken) {
+				Node folded = foldChain(op, left.right, right, mode);
+				if (folded != null)
+					return simplify(operator, left.left, folded, mode);
+			}
+			else if (left.left.token instanceof NumberToken) {
+				Node folded = foldChain(op, left.left, right, mode);
+				if (folded != null)
+					return simplify(operator, left.right, folded, mode);
+			}
+		}
+		else if (left.token instanceof NumberToken && isOperator(right, op))
+			return combine(operator, right, left, mode);
+		return new Node(operator, left, right);
+	}
+
+	// Apply an operator to two numbers the way expressions of a mode do. Returns null if a token
+	// can't hold the result exactly.
+	private static Node fold(byte op, Node left, Node right, Mode mode) {
+		switch (mode) {
+			case DOUBLE:
+				return number(ExpressionProgram.operateDouble(op, number(left), number(right)));
+			case LONG:
+				long result = ExpressionProgram.operateLong(op, (long) number(left), (long) number(right));
+				if (result > ExpressionProgram.MAX_EXACT_LONG || result < -ExpressionProgram.MAX_EXACT_LONG)
+					return null;
+				return number((double) result);
+			default:
+				return number(ExpressionProgram.operate(op, (float) number(left), (float) number(right)));
+		}
+	}
+
+	// Fold two numbers of a chain. Returns null if the result overflows, or if the numbers are multiplied
+	// and the result underflows to 0 or a subnormal number: (x * 1e20) * 1e20 is 1e10 when x is 1e-30, but
+	// x * 1e40 is infinite with floats. Sums are only checked for overflow, since they underflow exactly.
+	private static Node foldChain(byte op, Node left, Node right, Mode mode) {
+		Node folded = fold(op, left, right, mode);
+		if (folded == null || mode == Mode.LONG)
+			return folded;
+		double a = number(left);
+		double b = number(right);
+		double result = number(folded);
+		if (Double.isInfinite(a) || Double.isInfinite(b) || Double.isNaN(a) || Double.isNaN(b))
+			return folded;
+		if (Double.isInfinite(result))
+			return null;
+		if (op == ExpressionProgram.MULTIPLY && a != 0 && b != 0) {
+			double minNormal = (mode == Mode.DOUBLE) ? Double.MIN_NORMAL : Float.MIN_NORMAL;
+			if (Math.abs(result) < minNormal)
+				return null;
+		}
+		return folded;
+	}
+
+	private static boolean isOperator(Node node, byte op) {
+		return node.token instanceof OperatorToken && ((OperatorToken)node.token).getType() == op;
+	}
+
+	private static boolean isNumber(Node node, double number) {
+		return node.token instanceof NumberToken && ((NumberToken)node.token).getDoubleNumber() == number;
+	}
+
+	private static double number(Node node) {
+		return ((NumberToken)node.token).getDoubleNumber();
+	}
+
+	private static Node number(float number) {
+		return new Node(new NumberToken(number), null, null);
+	}
+
+	private static Node number(double number) {
+		return new Node(new NumberToken(number), null, null);
+	}
+
+}
@@ -0,0 +1,641 @@
+// The tokens of an expression packed into primitive arrays, so that evaluating it never allocates.
+// Each token is one opcode. Numbers and variables take their operands from the numbers and slots
+// arrays in the order they appear, so the code itself has no operands.
+// A subexpression that appears more than once is only run the first time. Its result is stored in a
+// temporary and loaded each time after that.
+
+package org.hafermath.expression;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.hafermath.expression.Expression.*;
+
+final class ExpressionProgram {
+
+	// Opcodes. Operators use their types as OperatorToken has them.
+	static final byte ADD = 0;
+	static final byte SUBTRACT = 1;
+	static final byte MULTIPLY = 2;
+	static final byte DIVIDE = 3;
+	static final byte POWER = 4;
+	static final byte MODULUS = 5;
+	static final byte MAX = 6;
+	static final byte MIN = 7;
+	static final byte ROOT = 8;
+	static final byte UNKNOWN_OPERATOR = 9; // Pops two values and pushes 0.
+	static final byte NUMBER = 10; // Pushes the next number.
+	static final byte VARIABLE = 11; // Pushes the value of the variable in the next slot.
+	static final byte STORE = 12; // Copies the top value into the next temporary, leaving it on the stack.
+	static final byte LOAD = 13; // Pushes the value of the temporary in the next load.
+
+	final byte[] code; // The opcode of each token.
+	final float[] numbers; // The values of the number tokens, in order.
+	final double[] doubleNumbers; // The values of the number tokens as they were written, for runDouble.
+	final long[] longNumbers; // The values of the number tokens as longs, for runLong.
+	final int[] slots; // The slots of the variable tokens, in order.
+	final int[] loads; // The temporaries the loads push, in order.
+	final int numTemps; // The number of temporaries. Each STORE uses the next one.
+	final int maxStack; // The most values on the stack at once.
+	final int stackSize; // The length of the stacks to run with: maxStack values, then the temporaries.
+
+	// A stack for each thread, for running programs from more than one thread at once. Programs never
+	// run inside each other, so one stack per thread is enough. Grows to fit the largest program.
+	private static final ThreadLocal<float[]> threadStacks = new ThreadLocal<float[]>() {
+		@Override
+		protected float[] initialValue() {
+			return new float[16];
+		}
+	};
+	private static final ThreadLocal<double[]> threadDoubleStacks = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[16];
+		}
+	};
+	private static final ThreadLocal<long[]> threadLongStacks = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[16];
+		}
+	};
+
+	// The largest long that a NumberToken holds exactly, since it holds numbers as doubles.
+	static final long MAX_EXACT_LONG = 1L << 53;
+
+	// The number of rows that runColumns works on at a time. Blocks are small enough that the
+	// columns of the stack stay in the cache while each operator is applied to them.
+	static final int BLOCK_SIZE = 256;
+
+	private ExpressionProgram(byte[] code, float[] numbers, double[] doubleNumbers, int[] slots, int[] loads, int numTemps) {
+		this.code = code;
+		this.numbers = numbers;
+		this.doubleNumbers = doubleNumbers;
+		longNumbers = new long[doubleNumbers.length];
+		for (int i = 0; i < doubleNumbers.length; i++)
+			longNumbers[i] = (long) doubleNumbers[i];
+		this.slots = slots;
+		this.loads = loads;
+		this.numTemps = numTemps;
+		maxStack = Math.max(maxStackDepth(code), 1);
+		stackSize = maxStack + numTemps;
+	}
+
+	// Pack RPN tokens into a program, resolving variables to their slots in a symbol table.
+	// Subexpressions that appear more than once are shared.
+	static ExpressionProgram pack(Token[] tokens, SymbolTable symbols) {
+		int numNumbers = 0;
+		int numVariables = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			if (tokens[i] instanceof NumberToken)
+				numNumbers++;
+			else if (tokens[i] instanceof VariableToken)
+				numVariables++;
+		}
+
+		byte[] code = new byte[tokens.length];
+		float[] numbers = new float[numNumbers];
+		double[] doubleNumbers = new double[numNumbers];
+		int[] slots = new int[numVariables];
+		for (int n = 0, v = 0, i = 0; i < tokens.length; i++) {
+			if (tokens[i] instanceof NumberToken) {
+				code[i] = NUMBER;
+				numbers[n] = ((NumberToken)tokens[i]).getNumber();
+				doubleNumbers[n++] = ((NumberToken)tokens[i]).getDoubleNumber();
+			}
+			else if (tokens[i] instanceof VariableToken) {
+				code[i] = VARIABLE;
+				slots[v++] = symbols.getSlot(((VariableToken)tokens[i]).getVariableName());
+			}
+			else {
+				byte type = ((OperatorToken)tokens[i]).getType();
+				code[i] = (type >= ADD && type <= ROOT) ? type : UNKNOWN_OPERATOR;
+			}
+		}
+
+		// Invalid RPN fails when it is run, as it always has.
+		ExpressionProgram program = new ExpressionProgram(code, numbers, doubleNumbers, slots, new int[0], 0);
+		if (!program.isValid())
+			return program;
+		return program.shareSubexpressions();
+	}
+
+	// Make a program that stores the result of each subexpression that appears more than once and
+	// loads it the times after that. Returns this if no subexpression is repeated.
+	private ExpressionProgram shareSubexpressions() {
+		int length = code.length;
+		if (length >= 1 << 28)
+			return this; // The ids of operands wouldn't fit in the keys.
+
+		// Give each subexpression an id, so that equal subexpressions have the same id, and find the
+		// token each one starts at.
+		int[] ids = new int[length];
+		int[] starts = new int[length];
+		int[] numberIndices = new int[length];
+		int[] slotIndices = new int[length];
+		HashMap<Long, Integer> idsByKey = new HashMap<Long, Integer>();
+		HashMap<Long, Integer> numberIds = new HashMap<Long, Integer>(); // Numbers are told apart by their double values.
+		int[] idStack = new int[length];
+		int[] startStack = new int[length];
+		int top = 0;
+		for (int n = 0, v = 0, i = 0; i < length; i++) {
+			long key; // The kind of token in the top two bits, then what makes it unique.
+			if (code[i] == NUMBER) {
+				numberIndices[i] = n;
+				Long bits = Double.doubleToRawLongBits(doubleNumbers[n++]);
+				Integer numberId = numberIds.get(bits);
+				if (numberId == null) {
+					numberId = numberIds.size();
+					numberIds.put(bits, numberId);
+				}
+				key = (1L << 62) | numberId;
+				starts[i] = i;
+			}
+			else if (code[i] == VARIABLE) {
+				slotIndices[i] = v;
+				key = (2L << 62) | slots[v++];
+				starts[i] = i;
+			}
+			else {
+				key = ((long)code[i] << 56) | ((long)idStack[top - 2] << 28) | idStack[top - 1];
+				starts[i] = startStack[top - 2];
+				top -= 2;
+			}
+			Integer id = idsByKey.get(key);
+			if (id == null) {
+				id = idsByKey.size();
+				idsByKey.put(key, id);
+			}
+			ids[i] = id;
+			idStack[top] = id;
+			startStack[top++] = starts[i];
+		}
+
+		// Link the operators that start at each token, largest first.
+		int[] largestEnd = new int[length];
+		int[] nextEnd = new int[length];
+		Arrays.fill(largestEnd, -1);
+		for (int i = 0; i < length; i++) {
+			if (code[i] != NUMBER && code[i] != VARIABLE) {
+				nextEnd[i] = largestEnd[starts[i]];
+				largestEnd[starts[i]] = i;
+			}
+		}
+
+		// Count the uses of each operator, skipping over the subexpressions that have been seen before.
+		int[] uses = new int[idsByKey.size()];
+		boolean repeated = false;
+		for (int i = 0; i < length;) {
+			int end = largestEnd[i];
+			while (end != -1 && uses[ids[end]] == 0)
+				end = nextEnd[end];
+			if (end != -1) {
+				uses[ids[end]]++;
+				repeated = true;
+				i = end + 1;
+			}
+			else {
+				if (code[i] != NUMBER && code[i] != VARIABLE)
+					uses[ids[i]]++;
+				i++;
+			}
+		}
+		if (!repeated)
+			return this;
+
+		// Write the code again, storing each repeated operator the first time and loading it after that.
+		byte[] newCode = new byte[2 * length]; // Each token may be followed by a store.
+		float[] newNumbers = new float[numbers.length];
+		double[] newDoubleNumbers = new double[numbers.length];
+		int[] newSlots = new int[slots.length];
+		int[] newLoads = new int[length];
+		int[] temps = new int[uses.length];
+		Arrays.fill(temps, -1);
+		int c = 0, n = 0, v = 0, l = 0, t = 0;
+		for (int i = 0; i < length;) {
+			int end = largestEnd[i];
+			while (end != -1 && temps[ids[end]] == -1)
+				end = nextEnd[end];
+			if (end != -1) {
+				newCode[c++] = LOAD;
+				newLoads[l++] = temps[ids[end]];
+				i = end + 1;
+				continue;
+			}
+
+			newCode[c++] = code[i];
+			if (code[i] == NUMBER) {
+				newDoubleNumbers[n] = doubleNumbers[numberIndices[i]];
+				newNumbers[n++] = numbers[numberIndices[i]];
+			}
+			else if (code[i] == VARIABLE)
+				newSlots[v++] = slots[slotIndices[i]];
+			else if (uses[ids[i]] > 1) {
+				newCode[c++] = STORE;
+				temps[ids[i]] = t++;
+			}
+			i++;
+		}
+
+		return new ExpressionProgram(Arrays.copyOf(newCode, c), Arrays.copyOf(newNumbers, n), Arrays.copyOf(newDoubleNumbers, n),
+				Arrays.copyOf(newSlots, v), Arrays.copyOf(newLoads, l), t);
+	}
+
+	// Check that the program never pops a value that isn't there and leaves a result on the stack.
+	boolean isValid() {
+		return maxStackDepth(code) >= 1;
+	}
+
+	// Get the most values a program has on its stack at once.
+	// Returns -1 if the program pops a value that isn't there or leaves nothing on the stack.
+	private static int maxStackDepth(byte[] code) {
+		int depth = 0;
+		int maxDepth = 0;
+		for (int i = 0; i < code.length; i++) {
+			if (code[i] == STORE) {
+				if (depth < 1)
+					return -1;
+			}
+			else if (code[i] != NUMBER && code[i] != VARIABLE && code[i] != LOAD) {
+				if (depth < 2)
+					return -1;
+				depth--;
+			}
+			else {
+				depth++;
+				if (depth > maxDepth)
+					maxDepth = depth;
+			}
+		}
+		if (depth < 1)
+			return -1;
+		return maxDepth;
+	}
+
+	// Get the stack of this thread, growing it to fit this program.
+	float[] threadStack() {
+		float[] stack = threadStacks.get();
+		if (stack.length < stackSize) {
+			stack = new float[Math.max(stackSize, stack.length * 2)];
+			threadStacks.set(stack);
+		}
+		return stack;
+	}
+
+	// Get the stack of doubles of this thread, growing it to fit this program.
+	double[] threadDoubleStack() {
+		double[] stack = threadDoubleStacks.get();
+		if (stack.length < stackSize) {
+			stack = new double[Math.max(stackSize, stack.length * 2)];
+			threadDoubleStacks.set(stack);
+		}
+		return stack;
+	}
+
+	// Get the stack of longs of this thread, growing it to fit this program.
+	long[] threadLongStack() {
+		long[] stack = threadLongStacks.get();
+		if (stack.length < stackSize) {
+			stack = new long[Math.max(stackSize, stack.length * 2)];
+			threadLongStacks.set(stack);
+		}
+		return stack;
+	}
+
+	// Run the program. env holds the value of each variable at its slot.
+	float run(float[] env, float[] stack) {
+		int top = 0;
+		int n = 0;
+		int v = 0;
+		int l = 0;
+		int t = maxStack;
+		for (int i = 0; i < code.length; i++) {
+			switch (code[i]) {
+				case NUMBER: stack[top++] = numbers[n++]; break;
+				case VARIABLE: stack[top++] = env[slots[v++]]; break;
+				case STORE: stack[t++] = stack[top - 1]; break;
+				case LOAD: stack[top++] = stack[maxStack + loads[l++]]; break;
+				default:
+					top--;
+					stack[top - 1] = operate(code[i], stack[top - 1], stack[top]);
+					break;
+			}
+		}
+		return stack[top - 1];
+	}
+
+	// Run the program. env holds the value of each variable at its slot, counting from index 0.
+	float run(FloatBuffer env, float[] stack) {
+		int top = 0;
+		int n = 0;
+		int v = 0;
+		int l = 0;
+		int t = maxStack;
+		for (int i = 0; i < code.length; i++) {
+			switch (code[i]) {
+				case NUMBER: stack[top++] = numbers[n++]; break;
+				case VARIABLE: stack[top++] = env.get(slots[v++]); break;
+				case STORE: stack[t++] = stack[top - 1]; break;
+				case LOAD: stack[top++] = stack[maxStack + loads[l++]]; break;
+				default:
+					top--;
+					stack[top - 1] = operate(code[i], stack[top - 1], stack[top]);
+					break;
+			}
+		}
+		return stack[top - 1];
+	}
+
+	// Run the program with doubles. Numbers have the values they were written with.
+	double runDouble(double[] env, double[] stack) {
+		int top = 0;
+		int n = 0;
+		int v = 0;
+		int l = 0;
+		int t = maxStack;
+		for (int i = 0; i < code.length; i++) {
+			switch (code[i]) {
+				case NUMBER: stack[top++] = doubleNumbers[n++]; break;
+				case VARIABLE: stack[top++] = env[slots[v++]]; break;
+				case STORE: stack[t++] = stack[top - 1]; break;
+				case LOAD: stack[top++] = stack[maxStack + loads[l++]]; break;
+				default:
+					top--;
+					stack[top - 1] = operateDouble(code[i], stack[top - 1], stack[top]);
+					break;
+			}
+		}
+		return stack[top - 1];
+	}
+
+	// Run the program with longs. Numbers are truncated to longs.
+	long runLong(long[] env, long[] stack) {
+		int top = 0;
+		int n = 0;
+		int v = 0;
+		int l = 0;
+		int t = maxStack;
+		for (int i = 0; i < code.length; i++) {
+			switch (code[i]) {
+				case NUMBER: stack[top++] = longNumbers[n++]; break;
+				case VARIABLE: stack[top++] = env[slots[v++]]; break;
+				case STORE: stack[t++] = stack[top - 1]; break;
+				case LOAD: stack[top++] = stack[maxStack + loads[l++]]; break;
+				default:
+					top--;
+					stack[top - 1] = operateLong(code[i], stack[top - 1], stack[top]);
+					break;
+			}
+		}
+		return stack[top - 1];
+	}
+
+	// Run the program for many rows of variables at once. columns[slot] holds the values of the
+	// variable in that slot, one for each row. The result of each row is put in results.
+	// Each opcode is applied to a whole block of rows before the next one, so the loops over the rows
+	// are simple enough for the JIT to unroll and vectorize. scratch must hold stackSize arrays of
+	// BLOCK_SIZE floats.
+	void runColumns(float[][] columns, float[] results, int numRows, float[][] scratch) {
+		// Each level of the stack and each temporary is either a constant, a column of the input,
+		// or a block of scratch. The temporaries come after the stack, as they do in run.
+		float[][] arrays = new float[stackSize][];
+		int[] offsets = new int[stackSize];
+		float[] constants = new float[stackSize];
+
+		for (int start = 0; start < numRows; start += BLOCK_SIZE) {
+			int count = Math.min(BLOCK_SIZE, numRows - start);
+			int top = 0;
+			int n = 0;
+			int v = 0;
+			int l = 0;
+			int t = maxStack;
+			for (int i = 0; i < code.length; i++) {
+				switch (code[i]) {
+					case NUMBER:
+						arrays[top] = null;
+						constants[top++] = numbers[n++];
+						break;
+					case VARIABLE:
+						// Variables are read straight out of their columns.
+						arrays[top] = columns[slots[v++]];
+						offsets[top++] = start;
+						break;
+					case STORE:
+						// The value is copied, since the block of its level is written over later.
+						if (arrays[top - 1] == null) {
+							arrays[t] = null;
+							constants[t] = constants[top - 1];
+						}
+						else {
+							System.arraycopy(arrays[top - 1], offsets[top - 1], scratch[t], 0, count);
+							arrays[t] = scratch[t];
+							offsets[t] = 0;
+						}
+						t++;
+						break;
+					case LOAD:
+						int temp = maxStack + loads[l++];
+						arrays[top] = arrays[temp];
+						offsets[top] = 0;
+						constants[top++] = constants[temp];
+						break;
+					default:
+						top--;
+						int a = top - 1;
+						if (arrays[a] == null && arrays[top] == null) {
+							constants[a] = operate(code[i], constants[a], constants[top]);
+							break;
+						}
+						// Results go in the scratch block of their level, which may be one of the operands.
+						float[] out = scratch[a];
+						if (arrays[a] == null)
+							Arrays.fill(out, 0, count, constants[a]);
+						else if (arrays[a] != out)
+							System.arraycopy(arrays[a], offsets[a], out, 0, count);
+						if (arrays[top] == null)
+							operate(code[i], out, constants[top], count);
+						else
+							operate(code[i], out, arrays[top], offsets[top], count);
+						arrays[a] = out;
+						offsets[a] = 0;
+						break;
+				}
+			}
+
+			if (arrays[0] == null)
+				Arrays.fill(results, start, start + count, constants[0]);
+			else
+				System.arraycopy(arrays[0], offsets[0], results, start, count);
+		}
+	}
+
+	// Apply an operator to each value in a block and the matching value in another array, in place.
+	private static void operate(byte op, float[] values, float[] others, int offset, int count) {
+		switch (op) {
+			case ADD:
+				for (int i = 0; i < count; i++)
+					values[i] += others[offset + i];
+				return;
+			case SUBTRACT:
+				for (int i = 0; i < count; i++)
+					values[i] -= others[offset + i];
+				return;
+			case MULTIPLY:
+				for (int i = 0; i < count; i++)
+					values[i] *= others[offset + i];
+				return;
+			case DIVIDE:
+				for (int i = 0; i < count; i++)
+					values[i] /= others[offset + i];
+				return;
+			case MAX:
+				for (int i = 0; i < count; i++)
+					values[i] = Math.max(values[i], others[offset + i]);
+				return;
+			case MIN:
+				for (int i = 0; i < count; i++)
+					values[i] = Math.min(values[i], others[offset + i]);
+				return;
+			default:
+				for (int i = 0; i < count; i++)
+					values[i] = operate(op, values[i], others[offset + i]);
+				return;
+		}
+	}
+
+	// Apply an operator to each value in a block and a constant, in place.
+	private static void operate(byte op, float[] values, float constant, int count) {
+		switch (op) {
+			case ADD:
+				for (int i = 0; i < count; i++)
+					values[i] += constant;
+				return;
+			case SUBTRACT:
+				for (int i = 0; i < count; i++)
+					values[i] -= constant;
+				return;
+			case MULTIPLY:
+				for (int i = 0; i < count; i++)
+					values[i] *= constant;
+				return;
+			case DIVIDE:
+				for (int i = 0; i < count; i++)
+					values[i] /= constant;
+				return;
+			case MAX:
+				for (int i = 0; i < count; i++)
+					values[i] = Math.max(values[i], constant);
+				return;
+			case MIN:
+				for (int i = 0; i < count; i++)
+					values[i] = Math.min(values[i], constant);
+				return;
+			default:
+				for (int i = 0; i < count; i++)
+					values[i] = operate(op, values[i], constant);
+				return;
+		}
+	}
+
+	// Apply an operator.
+	static float operate(byte op, float value1, float value2) {
+		switch (op) {
+			case ADD: return value1 + value2;
+			case SUBTRACT: return value1 - value2;
+			case MULTIPLY: return value1 * value2;
+			case DIVIDE: return value1 / value2;
+			case POWER: return (float) Math.pow(value1, value2);
+			case MODULUS: return value1 % value2;
+			case MAX: return Math.max(value1, value2);
+			case MIN: return Math.min(value1, value2);
+			case ROOT: return (float) Math.pow(value1, 1.0 / value2);
+			default: return 0;
+		}
+	}
+
+	// Apply an operator to doubles.
+	static double operateDouble(byte op, double value1, double value2) {
+		switch (op) {
+			case ADD: return value1 + value2;
+			case SUBTRACT: return value1 - value2;
+			case MULTIPLY: return value1 * value2;
+			case DIVIDE: return value1 / value2;
+			case POWER: return Math.pow(value1, value2);
+			case MODULUS: return value1 % value2;
+			case MAX: return Math.max(value1, value2);
+			case MIN: return Math.min(value1, value2);
+			case ROOT: return Math.pow(value1, 1.0 / value2);
+			default: return 0;
+		}
+	}
+
+	// Apply an operator to longs. Results that overflow wrap around. Dividing by 0 gives 0, as unknown
+	// operators do, instead of throwing.
+	static long operateLong(byte op, long value1, long value2) {
+		switch (op) {
+			case ADD: return value1 + value2;
+			case SUBTRACT: return value1 - value2;
+			case MULTIPLY: return value1 * value2;
+			case DIVIDE: return (value2 != 0) ? value1 / value2 : 0;
+			case POWER: return powLong(value1, value2);
+			case MODULUS: return (value2 != 0) ? value1 % value2 : 0;
+			case MAX: return Math.max(value1, value2);
+			case MIN: return Math.min(value1, value2);
+			case ROOT: return rootLong(value1, value2);
+			default: return 0;
+		}
+	}
+
+	// Raise a long to a power by squaring. Negative powers are truncated toward 0, like division.
+	private static long powLong(long base, long exponent) {
+		if (exponent < 0) {
+			if (base == 1)
+				return 1;
+			if (base == -1)
+				return ((exponent & 1) == 0) ? 1 : -1;
+			return 0;
+		}
+		long result = 1;
+		while (exponent > 0) {
+			if ((exponent & 1) != 0)
+				result *= base;
+			base *= base;
+			exponent >>= 1;
+		}
+		return result;
+	}
+
+	// Get a root of a long, rounded toward 0. Odd roots of negative numbers are negative, and even ones are 0,
+	// as are roots of a degree less than 1.
+	private static long rootLong(long value, long degree) {
+		if (degree < 1)
+			return 0;
+		if (degree == 1)
+			return value;
+		if (value < 0)
+			return ((degree & 1) != 0) ? -rootLong(-value, degree) : 0;
+
+		// Math.pow may be off by one either way, so correct it until root^degree <= value < (root + 1)^degree.
+		long root = (long) Math.pow(value, 1.0 / degree);
+		while (root > 0 && exceeds(root, degree, value))
+			root--;
+		while (!exceeds(root + 1, degree, value))
+			root++;
+		return root;
+	}
+
+	// See if base^exponent is greater than limit, without overflowing. base and limit must not be negative.
+	private static boolean exceeds(long base, long exponent, long limit) {
+		if (base <= 1)
+			return base > limit;
+		long result = 1;
+		for (long i = 0; i < exponent; i++) {
+			if (result > limit / base)
+				return true;
+			result *= base;
+		}
+		return false;
+	}
+
+}
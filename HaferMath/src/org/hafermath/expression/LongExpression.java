@@ -0,0 +1,115 @@
+// A mathematical expression that evaluates with longs, for formulas that only work with integers.
+// Division rounds toward 0, and dividing by 0 gives 0. ExpressionBuilders make these in LONG mode.
+
+package org.hafermath.expression;
+
+import java.util.Arrays;
+
+import org.hafermath.expression.ExpressionBuilder.Mode;
+
+public class LongExpression implements Expression {
+
+	private final Token[] tokens; // An array of the tokens in the expression.
+	private final VariableToken[] varTokens; // The variable tokens.
+	private final SymbolTable symbols; // The table the variables have their slots in.
+	private final ExpressionProgram program; // The tokens packed into primitive arrays for evaluation.
+	private final long[] evaluateStack; // The stack the expression does work with.
+	private long lastResult; // The last result of this expression.
+
+	// Constructor. The variables are given slots in the default symbol table.
+	public LongExpression(Token[] tokens) {
+		this(tokens, SymbolTable.getDefaultTable());
+	}
+
+	// Constructor. The variables are given slots in the given symbol table.
+	public LongExpression(Token[] tokens, SymbolTable symbols) {
+		this.tokens = tokens;
+		this.symbols = symbols;
+
+		// Count the variables and put them in varTokens.
+		int numVars = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			if (tokens[i] instanceof VariableToken)
+				numVars++;
+		}
+		varTokens = new VariableToken[numVars];
+		for (int q = 0, i = 0; i < tokens.length; i++) {
+			if (tokens[i] instanceof VariableToken)
+				varTokens[q++] = (VariableToken) tokens[i];
+		}
+
+		program = ExpressionProgram.pack(tokens, symbols);
+		evaluateStack = new long[program.stackSize];
+	}
+
+	// Constructor. The expression shares the tokens and program of another and only has its own stack.
+	// It starts with the last result of the other, so copies of constants have their values.
+	private LongExpression(LongExpression other) {
+		tokens = other.tokens;
+		varTokens = other.varTokens;
+		symbols = other.symbols;
+		program = other.program;
+		evaluateStack = new long[program.stackSize];
+		lastResult = other.lastResult;
+	}
+
+	// Evaluate the expression. env holds the value of each variable at its slot in the symbol table.
+	// Nothing is allocated.
+	public void evaluate(long[] env) {
+		lastResult = program.runLong(env, evaluateStack);
+	}
+
+	// Get the value of the expression without changing it, so that many threads can use it at once.
+	// See VariableExpression.compute(float[]).
+	public long compute(long[] env) {
+		return program.runLong(env, program.threadLongStack());
+	}
+
+	// Get the last result of this expression.
+	public long getLongValue() {
+		return lastResult;
+	}
+
+	// Get a copy of the tokens of this expression, in RPN order.
+	public Token[] getTokens() {
+		return Arrays.copyOf(tokens, tokens.length);
+	}
+
+	// Get the variables this expression references.
+	public VariableToken[] getVariables() {
+		return varTokens;
+	}
+
+	// Get the symbol table the variables of this expression have their slots in.
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	// Get the last result of this expression, as a float.
+	@Override
+	public float getValue() {
+		return (float) lastResult;
+	}
+
+	@Override
+	public Expression copy() {
+		return new LongExpression(this);
+	}
+
+	@Override
+	public Expression addWith(Expression other) {
+		Token[] outTokens = VariableExpression.addTokens(tokens, other);
+		return new LongExpression(ExpressionOptimizer.getDefaultOptimizer().optimize(outTokens, Mode.LONG), symbols);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		for (Token t : tokens) {
+			out.append(t.toString());
+			out.append(' ');
+		}
+		return out.toString();
+	}
+
+}
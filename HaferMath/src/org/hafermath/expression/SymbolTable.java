@@ -0,0 +1,63 @@
+// Gives each variable name a slot, which is its index in the arrays and buffers that expressions are evaluated with.
+
+package org.hafermath.expression;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class SymbolTable {
+
+	// Default table for use singleton-style. Expressions that aren't given a table use this one.
+	private static final SymbolTable defaultTable = new SymbolTable();
+
+	public static SymbolTable getDefaultTable() {
+		return defaultTable;
+	}
+
+	private final HashMap<String, Integer> slots; // The slot of each name. Guarded by this.
+	private final ArrayList<String> names; // The name in each slot. Guarded by this.
+
+	// Constructor.
+	public SymbolTable() {
+		slots = new HashMap<String, Integer>();
+		names = new ArrayList<String>();
+	}
+
+	// Get the slot of a name, giving it the next free slot if it doesn't have one yet.
+	public synchronized int getSlot(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			slot = names.size();
+			slots.put(name, slot);
+			names.add(name);
+		}
+		return slot;
+	}
+
+	// Get the slot of a name. Returns -1 if the name doesn't have a slot.
+	public synchronized int findSlot(String name) {
+		Integer slot = slots.get(name);
+		return (slot != null) ? slot : -1;
+	}
+
+	// Get the name in a slot.
+	public synchronized String getName(int slot) {
+		return names.get(slot);
+	}
+
+	// Get the number of slots that have been given out. An array this long has room for every variable.
+	public synchronized int size() {
+		return names.size();
+	}
+
+	// Make an array with room for every variable, for evaluating expressions with.
+	public float[] makeEnvironment() {
+		return new float[size()];
+	}
+
+	@Override
+	public synchronized String toString() {
+		return names.toString();
+	}
+
+}
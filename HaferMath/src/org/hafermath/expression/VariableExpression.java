@@ -2,7 +2,7 @@
 
 package org.hafermath.expression;
 
-import java.util.ArrayDeque;
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -10,12 +10,23 @@ public class VariableExpression implements Expression {
 
 	private final Token[] tokens; // An array of the tokens in the expression.
 	private final VariableToken[] varTokens; // The variable tokens.
-	private ArrayDeque<Float> evaluateStack; // The stack the expression does work with.
+	private final SymbolTable symbols; // The table the variables have their slots in.
+	private final ExpressionProgram program; // The tokens packed into primitive arrays for evaluation.
+	private final int[] varSlots; // The slot of each variable token, in the order of varTokens.
+	private final float[] evaluateStack; // The stack the expression does work with.
+	private float[] mapEnvironment; // The values of the variables when evaluating with a map. Made on first use.
+	private float[][] batchStack; // The stack of blocks used when evaluating columns. Made on first use.
 	private float lastResult; // The last result of this expression.
 	
-	// Constructor.
+	// Constructor. The variables are given slots in the default symbol table.
 	public VariableExpression(Token[] tokens) {
+		this(tokens, SymbolTable.getDefaultTable());
+	}
+
+	// Constructor. The variables are given slots in the given symbol table.
+	public VariableExpression(Token[] tokens, SymbolTable symbols) {
 		this.tokens = tokens; // Set the tokens.
+		this.symbols = symbols;
 		
 		// Count the number of variables.
 		int numVars = 0;
@@ -24,49 +35,103 @@ public class VariableExpression implements Expression {
 				numVars++;
 		}
 
-		// Initialize varTokens and put the variables in it.
+		// Initialize varTokens and put the variables in it, resolving the slot of each one.
 		varTokens = new VariableToken[numVars];
+		varSlots = new int[numVars];
 		for (int q = 0, i = 0; i < tokens.length; i++) {
-			if (tokens[i] instanceof VariableToken)
-				varTokens[q++] = (VariableToken) tokens[i];
+			if (tokens[i] instanceof VariableToken) {
+				varTokens[q] = (VariableToken) tokens[i];
+				varSlots[q] = symbols.getSlot(varTokens[q].getVariableName());
+				q++;
+			}
 		}
 
-		evaluateStack = new ArrayDeque<Float>(); // Make the stack to evaluate with.
+		// Pack the tokens and make the stack to evaluate with.
+		program = ExpressionProgram.pack(tokens, symbols);
+		evaluateStack = new float[program.stackSize];
+	}
+
+	// Constructor. The expression shares the tokens and program of another, which never change,
+	// and only has its own stack.
+	private VariableExpression(VariableExpression other) {
+		tokens = other.tokens;
+		varTokens = other.varTokens;
+		symbols = other.symbols;
+		program = other.program;
+		varSlots = other.varSlots;
+		evaluateStack = new float[program.stackSize];
 	}
 	
-	// Evaluate the expression.
+	// Evaluate the expression with the values of the expressions in a map. Variables that aren't
+	// in the map are 0. The map may be null if the expression has no variables.
 	public void evaluate(Map<String, Expression> varMap) {
-		// Clear the stack.
-		evaluateStack.clear();
-
-		// Loop through the tokens in the expression.
-		for (int i = 0; i < tokens.length; i++) {
-			// If the token is an operator, pop two values off the stack,
-			// operate on them, and push the result onto the stack.
-			if (tokens[i] instanceof OperatorToken) {
-				OperatorToken op = (OperatorToken)tokens[i];
-				float value1 = evaluateStack.pop();
-				float value2 = evaluateStack.pop();
-				float value3 = op.operate(value2, value1);
-				evaluateStack.push(value3);
-			}
-			// If the token is a number or a variable, get its value and push it onto the stack.
-			else if (tokens[i] instanceof NumberToken) {
-				float value = ((NumberToken)tokens[i]).getNumber();
-				evaluateStack.push(value);
-			}
-			else if (tokens[i] instanceof VariableToken) {
-				String varName = ((VariableToken)tokens[i]).getVariableName();
-				Expression e = varMap.get(varName);
-				if (e != null)
-					evaluateStack.push(new Float(e.getValue()));
-				else
-					evaluateStack.push(new Float(0));
-			}
+		if (mapEnvironment == null)
+			mapEnvironment = new float[maxSlot() + 1];
+		for (int i = 0; i < varTokens.length; i++) {
+			Expression e = varMap.get(varTokens[i].getVariableName());
+			mapEnvironment[varSlots[i]] = (e != null) ? e.getValue() : 0;
 		}
+		evaluate(mapEnvironment);
+	}
+
+	// Evaluate the expression. env holds the value of each variable at its slot in the symbol table.
+	// Nothing is allocated.
+	public void evaluate(float[] env) {
+		lastResult = program.run(env, evaluateStack);
+	}
+
+	// Evaluate the expression. env holds the value of each variable at its slot in the symbol table,
+	// counting from index 0 of the buffer. The position of the buffer is not used or changed.
+	public void evaluate(FloatBuffer env) {
+		lastResult = program.run(env, evaluateStack);
+	}
 
-		// The last thing in the stack should be the result.
-		lastResult = evaluateStack.pop();
+	// Get the value of the expression. env holds the value of each variable at its slot in the symbol table.
+	// Unlike evaluate, this doesn't change the expression, so one expression can be used by many threads
+	// at once. The work is done on a stack kept for each thread, and nothing is allocated.
+	public float compute(float[] env) {
+		return program.run(env, program.threadStack());
+	}
+
+	// Get the value of the expression, doing the work on the given stack. The stack must be at least
+	// getStackSize() long and must not be used by another thread at the same time.
+	public float compute(float[] env, float[] stack) {
+		if (stack.length < program.stackSize)
+			throw new IllegalArgumentException("The stack parameter must be at least " + program.stackSize + " long.");
+		return program.run(env, stack);
+	}
+
+	// Get the value of the expression. env is read as in evaluate(FloatBuffer), and may be used by many
+	// threads at once if they don't change it. See compute(float[]).
+	public float compute(FloatBuffer env) {
+		return program.run(env, program.threadStack());
+	}
+
+	// Get the length of the stacks that compute(float[], float[]) needs.
+	public int getStackSize() {
+		return program.stackSize;
+	}
+
+	// Evaluate the expression for many rows of variables at once, putting the result of each row in
+	// results. columns[slot] holds the values of the variable in that slot, one for each row; the
+	// columns of slots this expression doesn't use may be null. This is much faster than
+	// evaluating each row on its own. getValue is not changed.
+	public void evaluate(float[][] columns, float[] results) {
+		evaluate(columns, results, results.length);
+	}
+
+	// Evaluate the expression for the first numRows rows of variables. See evaluate(float[][], float[]).
+	public void evaluate(float[][] columns, float[] results, int numRows) {
+		if (numRows < 0)
+			throw new IllegalArgumentException("The numRows parameter must not be negative.");
+		if (batchStack == null)
+			batchStack = new float[program.stackSize][ExpressionProgram.BLOCK_SIZE];
+		program.runColumns(columns, results, numRows, batchStack);
+	}
+
+	// Get a copy of the tokens of this expression, in RPN order.
+	public Token[] getTokens() {
+		return Arrays.copyOf(tokens, tokens.length);
 	}
 
 	// Get the variables this expression references.
@@ -74,6 +139,30 @@ public class VariableExpression implements Expression {
 		return varTokens;
 	}
 	
+	// Get the packed form of this expression.
+	ExpressionProgram getProgram() {
+		return program;
+	}
+
+	// Get the symbol table the variables of this expression have their slots in.
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	// Get the slots of the variables this expression references, in the order of getVariables.
+	public int[] getVariableSlots() {
+		return varSlots.clone();
+	}
+
+	// Get the highest slot this expression references, or -1 if it has no variables.
+	// Arrays it is evaluated with must be longer than this.
+	public int maxSlot() {
+		int max = -1;
+		for (int i = 0; i < varSlots.length; i++)
+			max = Math.max(max, varSlots[i]);
+		return max;
+	}
+
 	@Override
 	public float getValue() {
 		return lastResult;
@@ -81,25 +170,36 @@ public class VariableExpression implements Expression {
 	
 	@Override
 	public Expression copy() {
-		return new VariableExpression(Arrays.copyOf(tokens, tokens.length));
+		return new VariableExpression(this);
 	}
 	
 	@Override
 	public Expression addWith(Expression other) {
-		// Since the tokens are in RPN, we can just append the other's tokens to the end of
-		// this and put a plus sign at the end.
+		// Optimizing combines the numbers that are added, so adding over and over doesn't make
+		// the expression grow without bound.
+		Token[] outTokens = addTokens(tokens, other);
+		return new VariableExpression(ExpressionOptimizer.getDefaultOptimizer().optimize(outTokens), symbols);
+	}
+	
+	// Make the tokens of the sum of RPN tokens and another expression. Since the tokens are in RPN,
+	// we can just append the other's tokens to the end and put a plus sign at the end. Expressions
+	// without tokens are added as their values.
+	static Token[] addTokens(Token[] tokens, Expression other) {
 		Token[] otherTokens;
-		if (other instanceof ConstantExpression)
-			otherTokens = new Token[] { new NumberToken(((ConstantExpression)other).getValue()) };
-		else
+		if (other instanceof VariableExpression)
 			otherTokens = ((VariableExpression)other).tokens;
+		else if (other instanceof DoubleExpression)
+			otherTokens = ((DoubleExpression)other).getTokens();
+		else if (other instanceof LongExpression)
+			otherTokens = ((LongExpression)other).getTokens();
+		else
+			otherTokens = new Token[] { new NumberToken(other.getValue()) };
 		
 		Token[] outTokens = Arrays.copyOf(tokens, tokens.length + otherTokens.length + 1);
 		for (int i = 0; i < otherTokens.length; i++)
 			outTokens[tokens.length + i] = otherTokens[i];
 		outTokens[outTokens.length - 1] = new OperatorToken((byte)0);
-		
-		return new VariableExpression(outTokens);
+		return outTokens;
 	}
 	
 	@Override
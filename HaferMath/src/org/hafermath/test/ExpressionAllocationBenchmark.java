@@ -0,0 +1,98 @@
+package org.hafermath.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hafermath.expression.ConstantExpression;
+import org.hafermath.expression.Expression;
+import org.hafermath.expression.ExpressionBuilder;
+import org.hafermath.expression.SymbolTable;
+import org.hafermath.expression.VariableExpression;
+
+public class ExpressionAllocationBenchmark {
+
+	private static final String EXPRESSION = "atk * 2 - def + (str + dex) * 0.5 ^ 2 % 7 > 1";
+	private static final int NUM_EVALUATIONS = 1000000;
+	private static final int NUM_RUNS = 10;
+
+	public static void main(String[] args) throws Exception {
+		SymbolTable symbols = new SymbolTable();
+		ExpressionBuilder builder = new ExpressionBuilder(symbols);
+		final VariableExpression expression = (VariableExpression) builder.makeExpression(EXPRESSION);
+
+		// Give every variable a value, in each of the forms expressions can be evaluated with.
+		final float[] env = symbols.makeEnvironment();
+		final Map<String, Expression> varMap = new HashMap<String, Expression>();
+		for (int i = 0; i < env.length; i++) {
+			env[i] = i + 1;
+			varMap.put(symbols.getName(i), new ConstantExpression(i + 1));
+		}
+		final FloatBuffer buffer = FloatBuffer.wrap(env);
+
+		for (int i = 0; i < NUM_RUNS; i++) {
+			measure("float[]", new Runnable() {
+				@Override
+				public void run() {
+					for (int q = 0; q < NUM_EVALUATIONS; q++) {
+						env[0] = q;
+						expression.evaluate(env);
+					}
+				}
+			});
+			measure("FloatBuffer", new Runnable() {
+				@Override
+				public void run() {
+					for (int q = 0; q < NUM_EVALUATIONS; q++) {
+						buffer.put(0, q);
+						expression.evaluate(buffer);
+					}
+				}
+			});
+			measure("Map", new Runnable() {
+				@Override
+				public void run() {
+					for (int q = 0; q < NUM_EVALUATIONS; q++)
+						expression.evaluate(varMap);
+				}
+			});
+		}
+	}
+
+	// Time a run of evaluations and report how many bytes they allocated, if the JVM can tell.
+	private static void measure(String name, Runnable evaluations) throws Exception {
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+		evaluations.run();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long bytes = allocatedBytes() - startBytes;
+		if (startBytes < 0)
+			System.out.printf("%s: %.1f ms, %.1f ns per evaluation%n", name, seconds * 1000, seconds * 1e9 / NUM_EVALUATIONS);
+		else
+			System.out.printf("%s: %.1f ms, %.1f ns and %.2f bytes per evaluation%n", name, seconds * 1000,
+					seconds * 1e9 / NUM_EVALUATIONS, (double) bytes / NUM_EVALUATIONS);
+	}
+
+	// Get the number of bytes the current thread has allocated, or -1 if the JVM doesn't count them.
+	private static long allocatedBytes() throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		try {
+			// The HotSpot interface that counts allocations isn't part of the standard API.
+			Class<?> hotSpotThreads = Class.forName("com.sun.management.ThreadMXBean");
+			if (!hotSpotThreads.isInstance(threads))
+				return -1;
+			Method method = hotSpotThreads.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) method.invoke(threads, Thread.currentThread().getId());
+		}
+		catch (ClassNotFoundException e) {
+			return -1;
+		}
+		catch (NoSuchMethodException e) {
+			return -1;
+		}
+	}
+
+}
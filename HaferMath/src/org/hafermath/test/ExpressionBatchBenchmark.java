@@ -0,0 +1,56 @@
+package org.hafermath.test;
+
+import java.util.Random;
+
+import org.hafermath.expression.ExpressionBuilder;
+import org.hafermath.expression.SymbolTable;
+import org.hafermath.expression.VariableExpression;
+
+public class ExpressionBatchBenchmark {
+
+	private static final String EXPRESSION = "atk * 2 - def";
+	private static final int NUM_ROWS = 10000;
+	private static final int NUM_PASSES = 100;
+	private static final int NUM_RUNS = 10;
+
+	public static void main(String[] args) {
+		SymbolTable symbols = new SymbolTable();
+		ExpressionBuilder builder = new ExpressionBuilder(symbols);
+		VariableExpression expression = (VariableExpression) builder.makeExpression(EXPRESSION);
+
+		// Make a column of values for each variable.
+		Random random = new Random(0);
+		float[][] columns = new float[symbols.size()][NUM_ROWS];
+		for (float[] column : columns) {
+			for (int i = 0; i < NUM_ROWS; i++)
+				column[i] = random.nextFloat() * 100;
+		}
+		float[] results = new float[NUM_ROWS];
+		float[] env = symbols.makeEnvironment();
+
+		for (int run = 0; run < NUM_RUNS; run++) {
+			// Evaluate the rows one at a time.
+			long start = System.nanoTime();
+			for (int pass = 0; pass < NUM_PASSES; pass++) {
+				for (int i = 0; i < NUM_ROWS; i++) {
+					for (int slot = 0; slot < columns.length; slot++)
+						env[slot] = columns[slot][i];
+					expression.evaluate(env);
+					results[i] = expression.getValue();
+				}
+			}
+			double rowSeconds = (System.nanoTime() - start) / 1e9;
+
+			// Evaluate all of the rows at once.
+			start = System.nanoTime();
+			for (int pass = 0; pass < NUM_PASSES; pass++)
+				expression.evaluate(columns, results);
+			double batchSeconds = (System.nanoTime() - start) / 1e9;
+
+			double numRows = (double) NUM_ROWS * NUM_PASSES;
+			System.out.printf("Per row: %.2f ns per row. Batch: %.2f ns per row, %.1fx faster.%n",
+					rowSeconds * 1e9 / numRows, batchSeconds * 1e9 / numRows, rowSeconds / batchSeconds);
+		}
+	}
+
+}
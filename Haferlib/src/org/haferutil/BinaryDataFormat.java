@@ -0,0 +1,65 @@
+package org.haferutil;
+
+/**
+ * Constants for the binary data format written by BinaryDataWriter and read by BinaryDataReader.
+ * The format holds the same values as the text format of DataWriter and DataReader.
+ *
+ * A file is laid out as:
+ * <pre>
+ * magic      'H' 'D' 'A' 'T'
+ * version    1 byte
+ * strings    varint count, then for each string a varint byte length and its UTF-8 bytes
+ * fields     varint count, then for each field a varint string index (its name) and a value
+ * </pre>
+ * Every string in the file, including field names and variable names, is stored once in the
+ * string table and referred to by index.
+ *
+ * A value is a tag byte followed by its contents:
+ * <pre>
+ * FALSE, TRUE               nothing
+ * INT                       zigzag varint
+ * FLOAT                     4 bytes, big endian IEEE 754
+ * STRING                    varint string index
+ * ARRAY                     varint length, then that many values
+ * MAP                       varint size, then that many key and value pairs
+ * CONSTANT_EXPRESSION       4 byte float
+ * VARIABLE_EXPRESSION       varint token count, then that many tokens in RPN order
+ * DOUBLE_EXPRESSION         varint token count, then that many wide tokens in RPN order
+ * LONG_EXPRESSION           varint token count, then that many wide tokens in RPN order
+ * </pre>
+ * A token is a token tag byte followed by a 4 byte float for numbers, an operator type byte
+ * for operators, or a varint string index for variables. Wide tokens are the same, except
+ * that numbers are 8 byte doubles, so they keep the precision they were written with.
+ *
+ * Varints are unsigned, 7 bits per byte, least significant group first, with the high bit set
+ * on every byte but the last.
+ *
+ * @author John Werner
+ *
+ */
+
+final class BinaryDataFormat {
+
+	static final byte[] MAGIC = { 'H', 'D', 'A', 'T' };
+	static final byte VERSION = 1;
+
+	static final byte TAG_FALSE = 0;
+	static final byte TAG_TRUE = 1;
+	static final byte TAG_INT = 2;
+	static final byte TAG_FLOAT = 3;
+	static final byte TAG_STRING = 4;
+	static final byte TAG_ARRAY = 5;
+	static final byte TAG_MAP = 6;
+	static final byte TAG_CONSTANT_EXPRESSION = 7;
+	static final byte TAG_VARIABLE_EXPRESSION = 8;
+	static final byte TAG_DOUBLE_EXPRESSION = 9;
+	static final byte TAG_LONG_EXPRESSION = 10;
+
+	static final byte TOKEN_NUMBER = 0;
+	static final byte TOKEN_OPERATOR = 1;
+	static final byte TOKEN_VARIABLE = 2;
+
+	private BinaryDataFormat() {
+	}
+
+}
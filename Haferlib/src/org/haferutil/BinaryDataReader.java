@@ -0,0 +1,326 @@
+package org.haferutil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hafermath.expression.ConstantExpression;
+import org.hafermath.expression.DoubleExpression;
+import org.hafermath.expression.Expression.NumberToken;
+import org.hafermath.expression.Expression.OperatorToken;
+import org.hafermath.expression.Expression.Token;
+import org.hafermath.expression.Expression.VariableToken;
+import org.hafermath.expression.LongExpression;
+import org.hafermath.expression.VariableExpression;
+
+import static org.haferutil.BinaryDataFormat.*;
+
+/**
+ * Reads data structures written by BinaryDataWriter.
+ * The maps that are read are built the same way as those read by DataReader: fields are in a
+ * TreeMap, nested maps are LinkedHashMaps, and arrays are Object arrays.
+ *
+ * @author John Werner
+ *
+ */
+
+public class BinaryDataReader {
+
+	private String[] strings;	// The string table of the data being read.
+	private StringPool stringPool;	// If not null, the strings in the table are interned in this.
+
+	/**
+	 * Create a BinaryDataReader.
+	 */
+	public BinaryDataReader() {
+	}
+
+	/**
+	 * Get the pool that the strings of the data are interned in.
+	 *
+	 * @return The string pool, or null if strings are not interned.
+	 */
+	public StringPool getStringPool() {
+		return stringPool;
+	}
+
+	/**
+	 * Set the pool that the strings of the data, such as field names and string values, are
+	 * interned in. Strings are not interned by default.
+	 *
+	 * @param pool The new string pool, or null to not intern strings.
+	 */
+	public void setStringPool(StringPool pool) {
+		stringPool = pool;
+	}
+
+	/**
+	 * Read the data from a file at a given path.
+	 *
+	 * @param pathString A string representing the file path.
+	 * @return A map of Strings to Objects that holds the loaded data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file or the file is not valid binary data.
+	 */
+	public Map<String, Object> readFile(String pathString) throws IOException {
+		return readFile(FileSystems.getDefault().getPath(pathString));
+	}
+
+	/**
+	 * Read the data from a file at a given path.
+	 *
+	 * @param source A path representing the file.
+	 * @return A map of Strings to Objects that holds the loaded data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file or the file is not valid binary data.
+	 */
+	public Map<String, Object> readFile(Path source) throws IOException {
+		return read(Files.readAllBytes(source));
+	}
+
+	/**
+	 * Read the data from a stream. The stream is read to its end but is not closed.
+	 *
+	 * @param source The stream to read the data from.
+	 * @return A map of Strings to Objects that holds the loaded data from the stream.
+	 * @throws IOException if an I/O error occurs while reading the stream or it is not valid binary data.
+	 */
+	public Map<String, Object> read(InputStream source) throws IOException {
+		ByteArrayOutputStream contents = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		int numRead;
+		while ((numRead = source.read(chunk)) != -1)
+			contents.write(chunk, 0, numRead);
+		return read(contents.toByteArray());
+	}
+
+	/**
+	 * Read the data from an array of bytes.
+	 *
+	 * @param source The bytes to read the data from.
+	 * @return A map of Strings to Objects that holds the data.
+	 * @throws IOException if the bytes are not valid binary data.
+	 */
+	public Map<String, Object> read(byte[] source) throws IOException {
+		return read(ByteBuffer.wrap(source));
+	}
+
+	/**
+	 * Read the data from the remaining bytes of a buffer. The buffer's position is not changed.
+	 *
+	 * @param source The buffer to read the data from.
+	 * @return A map of Strings to Objects that holds the data.
+	 * @throws IOException if the bytes are not valid binary data.
+	 */
+	public Map<String, Object> read(ByteBuffer source) throws IOException {
+		ByteBuffer in = source.duplicate();
+		try {
+			// Check the header.
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (in.get() != MAGIC[i])
+					throw new IOException("Not binary data: the header is missing.");
+			}
+			byte version = in.get();
+			if (version != VERSION)
+				throw new IOException("Unsupported binary data version: " + version);
+
+			// Read the string table.
+			strings = new String[readLength(in)];
+			for (int i = 0; i < strings.length; i++) {
+				int length = readLength(in);
+				if (in.hasArray()) {
+					strings[i] = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+					in.position(in.position() + length);
+				}
+				else {
+					byte[] encoded = new byte[length];
+					in.get(encoded);
+					strings[i] = new String(encoded, StandardCharsets.UTF_8);
+				}
+				if (stringPool != null)
+					strings[i] = stringPool.intern(strings[i]);
+			}
+
+			// Read the fields.
+			TreeMap<String, Object> out = new TreeMap<>();
+			int numFields = readLength(in);
+			for (int i = 0; i < numFields; i++) {
+				String fieldName = readString(in);
+				out.put(fieldName, readValue(in));
+			}
+			return out;
+		}
+		catch (BufferUnderflowException e) {
+			throw new EOFException("Binary data ended unexpectedly.");
+		}
+		finally {
+			strings = null;
+		}
+	}
+
+	/**
+	 * Read a tagged value.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The value.
+	 * @throws IOException if the value is not valid.
+	 */
+	private Object readValue(ByteBuffer in) throws IOException {
+		byte tag = in.get();
+		switch (tag) {
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_INT: {
+				int zigzag = readVarint(in);
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+			case TAG_FLOAT:
+				return in.getFloat();
+			case TAG_STRING:
+				return readString(in);
+			case TAG_ARRAY: {
+				Object[] array = new Object[readLength(in)];
+				for (int i = 0; i < array.length; i++)
+					array[i] = readValue(in);
+				return array;
+			}
+			case TAG_MAP: {
+				int mapSize = readLength(in);
+				Map<Object, Object> map = new LinkedHashMap<>();
+				for (int i = 0; i < mapSize; i++) {
+					Object key = readValue(in);
+					map.put(key, readValue(in));
+				}
+				return map;
+			}
+			case TAG_CONSTANT_EXPRESSION:
+				return new ConstantExpression(in.getFloat());
+			case TAG_VARIABLE_EXPRESSION:
+				return new VariableExpression(readTokens(in, false));
+			case TAG_DOUBLE_EXPRESSION: {
+				// Expressions without variables are evaluated once, as ExpressionBuilder does, so their value is ready.
+				Token[] tokens = readTokens(in, true);
+				DoubleExpression expression = new DoubleExpression(tokens);
+				if (!hasVariables(tokens))
+					expression.evaluate((double[])null);
+				return expression;
+			}
+			case TAG_LONG_EXPRESSION: {
+				Token[] tokens = readTokens(in, true);
+				LongExpression expression = new LongExpression(tokens);
+				if (!hasVariables(tokens))
+					expression.evaluate((long[])null);
+				return expression;
+			}
+			default:
+				throw new IOException("Invalid value tag in binary data: " + tag);
+		}
+	}
+
+	/**
+	 * Read the tokens of an expression, after their count.
+	 *
+	 * @param in The buffer to read from.
+	 * @param wide True if numbers are written as doubles.
+	 * @return The tokens.
+	 * @throws IOException if a token is not valid.
+	 */
+	private Token[] readTokens(ByteBuffer in, boolean wide) throws IOException {
+		Token[] tokens = new Token[readLength(in)];
+		for (int i = 0; i < tokens.length; i++)
+			tokens[i] = readToken(in, wide);
+		return tokens;
+	}
+
+	/**
+	 * @param tokens The tokens of an expression.
+	 * @return True if any of the tokens is a variable.
+	 */
+	private static boolean hasVariables(Token[] tokens) {
+		for (Token token : tokens) {
+			if (token instanceof VariableToken)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Read a tagged expression token.
+	 *
+	 * @param in The buffer to read from.
+	 * @param wide True if a number is written as a double.
+	 * @return The token.
+	 * @throws IOException if the token is not valid.
+	 */
+	private Token readToken(ByteBuffer in, boolean wide) throws IOException {
+		byte tag = in.get();
+		switch (tag) {
+			case TOKEN_NUMBER:
+				return wide ? new NumberToken(in.getDouble()) : new NumberToken(in.getFloat());
+			case TOKEN_OPERATOR:
+				return new OperatorToken(in.get());
+			case TOKEN_VARIABLE:
+				return new VariableToken(readString(in));
+			default:
+				throw new IOException("Invalid token tag in binary data: " + tag);
+		}
+	}
+
+	/**
+	 * Read a reference to the string table.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The string that is referred to.
+	 * @throws IOException if the reference is not in the table.
+	 */
+	private String readString(ByteBuffer in) throws IOException {
+		int index = readVarint(in);
+		if (index < 0 || index >= strings.length)
+			throw new IOException("Invalid string index in binary data: " + index);
+		return strings[index];
+	}
+
+	/**
+	 * Read a count of bytes or values. Every value takes at least one byte, so a count larger than
+	 * the number of bytes left can't be valid; checking this keeps bad data from allocating huge arrays.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The count.
+	 * @throws IOException if the count is larger than the number of bytes left.
+	 */
+	private static int readLength(ByteBuffer in) throws IOException {
+		int length = readVarint(in);
+		if (length < 0 || length > in.remaining())
+			throw new EOFException("Binary data ended before " + length + " more bytes or values could be read.");
+		return length;
+	}
+
+	/**
+	 * Read an unsigned varint.
+	 *
+	 * @param in The buffer to read from.
+	 * @return The value of the varint.
+	 * @throws IOException if the varint is longer than 5 bytes.
+	 */
+	private static int readVarint(ByteBuffer in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("Invalid varint in binary data.");
+	}
+
+}
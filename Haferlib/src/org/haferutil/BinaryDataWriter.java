@@ -0,0 +1,371 @@
+package org.haferutil;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hafermath.expression.ConstantExpression;
+import org.hafermath.expression.DoubleExpression;
+import org.hafermath.expression.Expression;
+import org.hafermath.expression.Expression.NumberToken;
+import org.hafermath.expression.Expression.OperatorToken;
+import org.hafermath.expression.Expression.Token;
+import org.hafermath.expression.Expression.VariableToken;
+import org.hafermath.expression.LongExpression;
+import org.hafermath.expression.VariableExpression;
+
+import static org.haferutil.BinaryDataFormat.*;
+
+/**
+ * Writes data structures in a compact binary format that BinaryDataReader can read.
+ * This holds the same values as the text format of DataWriter, but is much smaller and
+ * much faster to read. See BinaryDataFormat for the layout.
+ *
+ * @author John Werner
+ *
+ */
+
+public class BinaryDataWriter implements AutoCloseable {
+
+	private OutputStream outputStream;
+	private byte[] bytes;							// A reusable buffer that each write is encoded into.
+	private int size;								// The number of bytes in the buffer that are in use.
+	private HashMap<String, Integer> stringIndices;	// The index of each string in the string table.
+	private ArrayList<String> strings;				// The string table, in order.
+
+	/**
+	 * Constructor.
+	 */
+	public BinaryDataWriter() {
+		bytes = new byte[1024];
+		stringIndices = new HashMap<>();
+		strings = new ArrayList<>();
+	}
+
+	/**
+	 * Make a BinaryDataWriter that will write to the given stream.
+	 *
+	 * @param stream The stream to write to.
+	 */
+	public BinaryDataWriter(OutputStream stream) {
+		this();
+		setOutputToStream(stream);
+	}
+
+	/**
+	 * Make a BinaryDataWriter that will write to the given file.
+	 *
+	 * @param file The file to write to.
+	 * @throws FileNotFoundException If the given file is not found.
+	 */
+	public BinaryDataWriter(File file) throws FileNotFoundException {
+		this();
+		setOutputToFile(file);
+	}
+
+	/**
+	 * Set the output to an OutputStream.
+	 *
+	 * @param stream The stream to write to.
+	 */
+	public void setOutputToStream(OutputStream stream) {
+		closeQuietly();
+		outputStream = stream;
+	}
+
+	/**
+	 * Set the output to some file.
+	 *
+	 * @param file The file to write to.
+	 * @throws FileNotFoundException If the given file is not found.
+	 */
+	public void setOutputToFile(File file) throws FileNotFoundException {
+		closeQuietly();
+		outputStream = new FileOutputStream(file);
+	}
+
+	/**
+	 * Close the current output.
+	 *
+	 * @throws IOException If the output fails to close.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (outputStream != null) {
+			OutputStream stream = outputStream;
+			outputStream = null;
+			stream.close();
+		}
+	}
+
+	/**
+	 * Writes a map to the output in the order of the map's iterator.
+	 * Values may be Booleans, Integers, Floats, Strings, Expressions, and arrays and maps of them.
+	 *
+	 * @param data The map to write.
+	 * @throws IOException If an I/O error occurs while writing.
+	 * @throws IllegalArgumentException If the map holds a value of any other type.
+	 */
+	public void write(Map<String, Object> data) throws IOException {
+		encodeData(data);
+		outputStream.write(bytes, 0, size);
+		outputStream.flush();
+	}
+
+	/**
+	 * Encode a map without writing it anywhere.
+	 *
+	 * @param data The map to encode.
+	 * @return The bytes that write would have written for the map.
+	 * @throws IllegalArgumentException If the map holds a value that can't be encoded.
+	 */
+	public byte[] encode(Map<String, Object> data) {
+		encodeData(data);
+		return Arrays.copyOf(bytes, size);
+	}
+
+	/**
+	 * Encode a map into the buffer.
+	 *
+	 * @param data The map to encode.
+	 */
+	private void encodeData(Map<String, Object> data) {
+		// Build the string table first so it can be written before anything refers to it.
+		stringIndices.clear();
+		strings.clear();
+		for (Map.Entry<String, Object> entry : data.entrySet()) {
+			addString(entry.getKey());
+			addStrings(entry.getValue());
+		}
+
+		// Write the header and the string table.
+		size = 0;
+		for (int i = 0; i < MAGIC.length; i++)
+			writeByte(MAGIC[i]);
+		writeByte(VERSION);
+		writeVarint(strings.size());
+		for (String s : strings) {
+			byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+			writeVarint(encoded.length);
+			writeBytes(encoded);
+		}
+
+		// Write the fields.
+		writeVarint(data.size());
+		for (Map.Entry<String, Object> entry : data.entrySet()) {
+			writeVarint(stringIndices.get(entry.getKey()));
+			writeValue(entry.getValue());
+		}
+
+		// Don't hold on to the strings until the next write.
+		stringIndices.clear();
+		strings.clear();
+	}
+
+	/**
+	 * Add every string in a value to the string table.
+	 *
+	 * @param value The value to look in.
+	 */
+	private void addStrings(Object value) {
+		if (value instanceof String) {
+			addString((String)value);
+		}
+		else if (value instanceof Object[]) {
+			for (Object element : (Object[])value)
+				addStrings(element);
+		}
+		else if (value instanceof Map<?, ?>) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+				addStrings(entry.getKey());
+				addStrings(entry.getValue());
+			}
+		}
+		else if (value instanceof VariableExpression) {
+			for (VariableToken variable : ((VariableExpression)value).getVariables())
+				addString(variable.getVariableName());
+		}
+		else if (value instanceof DoubleExpression) {
+			for (VariableToken variable : ((DoubleExpression)value).getVariables())
+				addString(variable.getVariableName());
+		}
+		else if (value instanceof LongExpression) {
+			for (VariableToken variable : ((LongExpression)value).getVariables())
+				addString(variable.getVariableName());
+		}
+	}
+
+	/**
+	 * Add a string to the string table if it isn't already in it.
+	 *
+	 * @param s The string to add.
+	 */
+	private void addString(String s) {
+		if (!stringIndices.containsKey(s)) {
+			stringIndices.put(s, strings.size());
+			strings.add(s);
+		}
+	}
+
+	/**
+	 * Write a tagged value.
+	 *
+	 * @param value The value to write.
+	 */
+	private void writeValue(Object value) {
+		if (value instanceof Boolean) {
+			writeByte(((Boolean)value) ? TAG_TRUE : TAG_FALSE);
+		}
+		else if (value instanceof Integer) {
+			int i = (Integer)value;
+			writeByte(TAG_INT);
+			writeVarint((i << 1) ^ (i >> 31));
+		}
+		else if (value instanceof Float) {
+			writeByte(TAG_FLOAT);
+			writeFloat((Float)value);
+		}
+		else if (value instanceof String) {
+			writeByte(TAG_STRING);
+			writeVarint(stringIndices.get(value));
+		}
+		else if (value instanceof Object[]) {
+			Object[] array = (Object[])value;
+			writeByte(TAG_ARRAY);
+			writeVarint(array.length);
+			for (int i = 0; i < array.length; i++)
+				writeValue(array[i]);
+		}
+		else if (value instanceof Map<?, ?>) {
+			Map<?, ?> map = (Map<?, ?>)value;
+			writeByte(TAG_MAP);
+			writeVarint(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeValue(entry.getKey());
+				writeValue(entry.getValue());
+			}
+		}
+		else if (value instanceof ConstantExpression) {
+			writeByte(TAG_CONSTANT_EXPRESSION);
+			writeFloat(((ConstantExpression)value).getValue());
+		}
+		else if (value instanceof VariableExpression) {
+			writeByte(TAG_VARIABLE_EXPRESSION);
+			writeTokens(((VariableExpression)value).getTokens(), false);
+		}
+		else if (value instanceof DoubleExpression) {
+			writeByte(TAG_DOUBLE_EXPRESSION);
+			writeTokens(((DoubleExpression)value).getTokens(), true);
+		}
+		else if (value instanceof LongExpression) {
+			writeByte(TAG_LONG_EXPRESSION);
+			writeTokens(((LongExpression)value).getTokens(), true);
+		}
+		else {
+			String type = (value == null) ? "null" : value.getClass().getName();
+			throw new IllegalArgumentException("Values of type " + type + " can't be written.");
+		}
+	}
+
+	/**
+	 * Write the tokens of an expression, after their count.
+	 *
+	 * @param tokens The tokens to write.
+	 * @param wide True to write numbers as doubles, for expressions that evaluate with doubles or longs.
+	 */
+	private void writeTokens(Token[] tokens, boolean wide) {
+		writeVarint(tokens.length);
+		for (int i = 0; i < tokens.length; i++)
+			writeToken(tokens[i], wide);
+	}
+
+	/**
+	 * Write a tagged expression token.
+	 *
+	 * @param token The token to write.
+	 * @param wide True to write a number as a double.
+	 */
+	private void writeToken(Token token, boolean wide) {
+		if (token instanceof NumberToken) {
+			writeByte(TOKEN_NUMBER);
+			if (wide)
+				writeDouble(((NumberToken)token).getDoubleNumber());
+			else
+				writeFloat(((NumberToken)token).getNumber());
+		}
+		else if (token instanceof OperatorToken) {
+			writeByte(TOKEN_OPERATOR);
+			writeByte(((OperatorToken)token).getType());
+		}
+		else {
+			writeByte(TOKEN_VARIABLE);
+			writeVarint(stringIndices.get(((VariableToken)token).getVariableName()));
+		}
+	}
+
+	private void writeFloat(float f) {
+		int bits = Float.floatToIntBits(f);
+		ensureCapacity(4);
+		bytes[size++] = (byte)(bits >>> 24);
+		bytes[size++] = (byte)(bits >>> 16);
+		bytes[size++] = (byte)(bits >>> 8);
+		bytes[size++] = (byte)bits;
+	}
+
+	private void writeDouble(double d) {
+		long bits = Double.doubleToLongBits(d);
+		ensureCapacity(8);
+		for (int shift = 56; shift >= 0; shift -= 8)
+			bytes[size++] = (byte)(bits >>> shift);
+	}
+
+	private void writeVarint(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			bytes[size++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[size++] = (byte)value;
+	}
+
+	private void writeByte(byte b) {
+		ensureCapacity(1);
+		bytes[size++] = b;
+	}
+
+	private void writeBytes(byte[] b) {
+		ensureCapacity(b.length);
+		System.arraycopy(b, 0, bytes, size, b.length);
+		size += b.length;
+	}
+
+	/**
+	 * Grow the buffer if it can't fit some more bytes.
+	 *
+	 * @param numBytes The number of bytes that are about to be written.
+	 */
+	private void ensureCapacity(int numBytes) {
+		if (size + numBytes > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(size + numBytes, bytes.length * 2));
+	}
+
+	/**
+	 * Close the current output, ignoring any failure. Used when the output is being replaced.
+	 */
+	private void closeQuietly() {
+		try {
+			close();
+		}
+		catch (IOException e) {
+			Log.getDefaultLog().error("Failed to close the output of a BinaryDataWriter: " + e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.haferutil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A DataScanner that reads UTF-8 bytes directly out of a ByteBuffer, such as a memory mapped file.
+ * Everything outside of string values is ASCII, so bytes are used as characters as they are;
+ * only the bytes of string values are decoded.
+ *
+ * @author John Werner
+ *
+ */
+
+final class ByteBufferDataScanner extends DataScanner {
+
+	private final ByteBuffer buffer;	// The bytes being scanned.
+	private final ByteBuffer view;		// A view of the buffer used for bulk copies, so its position can be moved freely.
+	private int position;				// The index in the buffer of the next byte.
+	private final int limit;			// The index in the buffer after the last byte.
+	private byte[] stringBytes;			// A reusable array that the bytes of strings are copied into to decode them.
+
+	/**
+	 * Make a scanner that reads a buffer from its position to its limit.
+	 * The position of the buffer is not changed.
+	 *
+	 * @param buffer The buffer to scan.
+	 */
+	ByteBufferDataScanner(ByteBuffer buffer) {
+		this.buffer = buffer;
+		view = buffer.duplicate();
+		position = buffer.position();
+		limit = buffer.limit();
+		stringBytes = new byte[64];
+		startLinesAt(position);
+	}
+
+	@Override
+	protected int peek() {
+		if (position == limit)
+			return END;
+		return buffer.get(position) & 0xFF;
+	}
+
+	@Override
+	protected int read() {
+		if (position == limit)
+			return END;
+		return buffer.get(position++) & 0xFF;
+	}
+
+	@Override
+	protected int position() {
+		return position;
+	}
+
+	@Override
+	protected int charAt(int offset) {
+		return buffer.get(offset) & 0xFF;
+	}
+
+	@Override
+	protected DataScanner scannerAt(int position) {
+		ByteBuffer start = buffer.duplicate();
+		start.limit(limit);
+		start.position(position);
+		ByteBufferDataScanner scanner = new ByteBufferDataScanner(start);
+		copySettingsTo(scanner);
+		return scanner;
+	}
+
+	@Override
+	protected String readStringBody() {
+		// Find the closing quote. UTF-8 never uses quote or backslash bytes inside other characters.
+		int start = position;
+		int end = start;
+		boolean escaped = false;
+		while (end < limit) {
+			byte b = buffer.get(end);
+			if (b == '"')
+				break;
+			if (b == '\\') {
+				escaped = true;
+				end++;
+			}
+			end++;
+		}
+		if (end >= limit) {
+			position = limit;
+			return null;
+		}
+		position = end + 1;
+
+		// Decode the bytes between the quotes.
+		int length = end - start;
+		if (stringBytes.length < length)
+			stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+		view.position(start);
+		view.get(stringBytes, 0, length);
+		String out = new String(stringBytes, 0, length, StandardCharsets.UTF_8);
+		return (escaped && isUnescapingStrings()) ? unescape(out) : out;
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.haferutil;
+
+/**
+ * A DataScanner that reads the characters of a CharSequence, such as a String, in place.
+ *
+ * @author John Werner
+ *
+ */
+
+final class CharSequenceDataScanner extends DataScanner {
+
+	private final CharSequence text;	// The characters being scanned.
+	private int position;				// The index in the text of the next character.
+	private final int limit;			// The length of the text.
+
+	/**
+	 * Make a scanner that reads a CharSequence from its start.
+	 *
+	 * @param text The characters to scan.
+	 */
+	CharSequenceDataScanner(CharSequence text) {
+		this(text, 0);
+	}
+
+	/**
+	 * Make a scanner that reads a CharSequence from a given index.
+	 *
+	 * @param text The characters to scan.
+	 * @param position The index of the first character to scan.
+	 */
+	CharSequenceDataScanner(CharSequence text, int position) {
+		this.text = text;
+		this.position = position;
+		limit = text.length();
+	}
+
+	@Override
+	protected int peek() {
+		if (position == limit)
+			return END;
+		return text.charAt(position);
+	}
+
+	@Override
+	protected int read() {
+		if (position == limit)
+			return END;
+		return text.charAt(position++);
+	}
+
+	@Override
+	protected int position() {
+		return position;
+	}
+
+	@Override
+	protected int charAt(int offset) {
+		return text.charAt(offset);
+	}
+
+	@Override
+	protected DataScanner scannerAt(int position) {
+		CharSequenceDataScanner scanner = new CharSequenceDataScanner(text, position);
+		copySettingsTo(scanner);
+		return scanner;
+	}
+
+}
@@ -0,0 +1,881 @@
+package org.haferutil;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binds data in the DataReader format directly onto the fields of a class. Values are scanned
+ * straight into the fields of a new object, so no map is built and primitive fields are never boxed.
+ *
+ * Fields are matched to data fields by name. They may be of type boolean, int, long, float, double,
+ * Long, Double or String, or arrays of boolean, int, float or String. Longs and doubles are scanned
+ * with their full range and precision. Fields of other classes are bound from maps whose keys are
+ * the names of that class's fields, and arrays of other classes are bound from arrays of such maps.
+ * Fields of type Object, Object[], Map, Boolean, Integer or Float receive values just as DataReader
+ * would read them. Static, final and transient fields are left alone, as are data fields that no
+ * field matches. A field is only set once its data field has been read without errors.
+ *
+ * Bound classes need a constructor with no parameters. Their fields are resolved to method handles
+ * once, when the binder is made, and fields of types that can't be bound, such as interfaces, enums
+ * and the other classes of the Java platform, are rejected then. Binders are cached per class and
+ * may be shared between threads. Data is scanned with the settings of a DataReader, which is the
+ * default reader unless another is given.
+ *
+ * @author John Werner
+ *
+ */
+
+public final class DataBinder<T> {
+
+	/**
+	 * How a field is bound.
+	 */
+	private enum Kind {
+		BOOLEAN, INT, LONG, FLOAT, DOUBLE, STRING,
+		BOOLEAN_ARRAY, INT_ARRAY, FLOAT_ARRAY, STRING_ARRAY,
+		BOUND, BOUND_ARRAY, VALUE,
+	}
+
+	/**
+	 * A field of a bound class.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	private static final class FieldBinding {
+
+		private final Field field;
+		private final Kind kind;
+		private final MethodHandle setter;	// Takes the target as an Object and the value as its exact type.
+		private volatile DataBinder<?> binder;	// Binds BOUND and BOUND_ARRAY fields. Made on first use.
+
+		private FieldBinding(Field field, Kind kind, MethodHandle setter) {
+			this.field = field;
+			this.kind = kind;
+			this.setter = setter;
+		}
+
+		/**
+		 * Get the binder for the class, or the element class, of this field.
+		 * This is made lazily so classes can contain fields of their own type.
+		 */
+		private DataBinder<?> getBinder() {
+			if (binder == null) {
+				Class<?> type = field.getType();
+				Class<?> elementType = type.isArray() ? type.getComponentType() : type;
+				binder = forClass(elementType);
+			}
+			return binder;
+		}
+
+	}
+
+	/**
+	 * The value of a field that has been scanned but not yet set, since the rest of its data field
+	 * may still have errors. Primitive values are held without boxing them.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	private static final class ScannedValue {
+
+		private FieldBinding binding;	// The field the value is for, or null if there is nothing to set.
+		private boolean booleanValue;
+		private int intValue;
+		private long longValue;
+		private float floatValue;
+		private double doubleValue;
+		private Object objectValue;
+
+		/**
+		 * Set the field of a target to the value.
+		 *
+		 * @param target The object to set the field of.
+		 */
+		private void setOn(Object target) {
+			switch (binding.kind) {
+				case BOOLEAN: set(binding.setter, target, booleanValue); break;
+				case INT: set(binding.setter, target, intValue); break;
+				case LONG: set(binding.setter, target, longValue); break;
+				case FLOAT: set(binding.setter, target, floatValue); break;
+				case DOUBLE: set(binding.setter, target, doubleValue); break;
+				default: set(binding.setter, target, objectValue); break;
+			}
+		}
+
+	}
+
+	private static final ConcurrentHashMap<Class<?>, DataBinder<?>> binders = new ConcurrentHashMap<>();
+
+	private final Class<T> type;
+	private final MethodHandle constructor;				// Takes nothing and returns an Object.
+	private final Map<String, FieldBinding> fields;		// The bound fields, by name.
+
+	/**
+	 * Get the binder for a class, making it if this is the first time it has been asked for.
+	 *
+	 * @param type The class to bind data onto.
+	 * @return The binder for the class.
+	 * @throws IllegalArgumentException if the class has no constructor without parameters or has
+	 *         a field that can't be bound.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> DataBinder<T> forClass(Class<T> type) {
+		DataBinder<?> binder = binders.get(type);
+		if (binder == null) {
+			binder = new DataBinder<>(type);
+			DataBinder<?> existing = binders.putIfAbsent(type, binder);
+			if (existing != null)
+				binder = existing;
+		}
+		return (DataBinder<T>)binder;
+	}
+
+	/**
+	 * Resolve the constructor and fields of a class.
+	 *
+	 * @param type The class to bind data onto.
+	 */
+	private DataBinder(Class<T> type) {
+		if (type.isPrimitive() || type.isArray() || type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+			throw new IllegalArgumentException("Data can't be bound onto " + type.getName() + ".");
+		this.type = type;
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+		// Find the constructor.
+		try {
+			Constructor<T> c = type.getDeclaredConstructor();
+			c.setAccessible(true);
+			constructor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+		}
+		catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new IllegalArgumentException(type.getName() + " needs a constructor with no parameters.", e);
+		}
+
+		// Find the fields, including inherited ones. Fields in subclasses hide those in superclasses.
+		fields = new HashMap<>();
+		for (Class<?> c = type; c != Object.class && c != null; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || Modifier.isTransient(modifiers)
+						|| field.isSynthetic() || fields.containsKey(field.getName()))
+					continue;
+				fields.put(field.getName(), bindField(lookup, field));
+			}
+		}
+	}
+
+	/**
+	 * Work out how to bind a field and make its setter.
+	 *
+	 * @param lookup The lookup to make the setter with.
+	 * @param field The field to bind.
+	 * @return The binding.
+	 */
+	private static FieldBinding bindField(MethodHandles.Lookup lookup, Field field) {
+		Class<?> fieldType = field.getType();
+		Kind kind;
+		if (fieldType == boolean.class)
+			kind = Kind.BOOLEAN;
+		else if (fieldType == int.class)
+			kind = Kind.INT;
+		else if (fieldType == long.class || fieldType == Long.class)
+			kind = Kind.LONG;
+		else if (fieldType == float.class)
+			kind = Kind.FLOAT;
+		else if (fieldType == double.class || fieldType == Double.class)
+			kind = Kind.DOUBLE;
+		else if (fieldType == String.class)
+			kind = Kind.STRING;
+		else if (fieldType == boolean[].class)
+			kind = Kind.BOOLEAN_ARRAY;
+		else if (fieldType == int[].class)
+			kind = Kind.INT_ARRAY;
+		else if (fieldType == float[].class)
+			kind = Kind.FLOAT_ARRAY;
+		else if (fieldType == String[].class)
+			kind = Kind.STRING_ARRAY;
+		else if (fieldType == Object.class || fieldType == Object[].class || fieldType == Boolean.class
+				|| fieldType == Integer.class || fieldType == Float.class || fieldType.isAssignableFrom(LinkedHashMap.class))
+			kind = Kind.VALUE;
+		else if (!isBindable(fieldType.isArray() ? fieldType.getComponentType() : fieldType))
+			throw new IllegalArgumentException("Fields of type " + fieldType.getName() + " can't be bound: " + field);
+		else if (fieldType.isArray())
+			kind = Kind.BOUND_ARRAY;
+		else
+			kind = Kind.BOUND;
+
+		// Primitive setters keep their primitive parameter so setting them never boxes.
+		// The setters of Long and Double fields take primitives too, and box them themselves.
+		Class<?> valueType;
+		if (kind == Kind.LONG)
+			valueType = long.class;
+		else if (kind == Kind.DOUBLE)
+			valueType = double.class;
+		else
+			valueType = fieldType.isPrimitive() ? fieldType : Object.class;
+		try {
+			field.setAccessible(true);
+			MethodHandle setter = lookup.unreflectSetter(field)
+					.asType(MethodType.methodType(void.class, Object.class, valueType));
+			return new FieldBinding(field, kind, setter);
+		}
+		catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Can't access " + field + ".", e);
+		}
+	}
+
+	/**
+	 * See if a class can be bound from maps. It must be a concrete class with a constructor with no
+	 * parameters that isn't part of the Java platform. Its own fields are checked when its binder is made.
+	 *
+	 * @param type The class.
+	 * @return True if the class can be bound.
+	 */
+	private static boolean isBindable(Class<?> type) {
+		if (type.isPrimitive() || type.isArray() || type.isInterface() || type.isEnum()
+				|| Modifier.isAbstract(type.getModifiers()) || type.getName().startsWith("java."))
+			return false;
+		try {
+			type.getDeclaredConstructor();
+			return true;
+		}
+		catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Get the class this binds data onto.
+	 *
+	 * @return The bound class.
+	 */
+	public Class<T> getBoundClass() {
+		return type;
+	}
+
+	/**
+	 * Read a new object from a file at a given path.
+	 *
+	 * @param pathString A string representing the file path.
+	 * @return A new object holding the data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public T readFile(String pathString) throws IOException {
+		return readFile(FileSystems.getDefault().getPath(pathString));
+	}
+
+	/**
+	 * Read a new object from a file at a given path. The file is decoded as UTF-8.
+	 *
+	 * @param source A path representing the file.
+	 * @return A new object holding the data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public T readFile(Path source) throws IOException {
+		return readFile(source, newInstance());
+	}
+
+	/**
+	 * Read a file at a given path into an existing object, such as when reloading it.
+	 * Fields that the file doesn't mention keep their values.
+	 *
+	 * @param source A path representing the file.
+	 * @param target The object to read the data into.
+	 * @return The target.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public T readFile(Path source, T target) throws IOException {
+		return readFile(source, target, DataReader.getDefaultReader());
+	}
+
+	/**
+	 * Read a file at a given path into an existing object with the settings of a reader, such as
+	 * its string pool and whether it logs errors. Errors are reported with the path of the file.
+	 * Fields that the file doesn't mention keep their values.
+	 *
+	 * @param source A path representing the file.
+	 * @param target The object to read the data into.
+	 * @param settings The reader whose settings the data is scanned with.
+	 * @return The target.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public T readFile(Path source, T target, DataReader settings) throws IOException {
+		try (Reader reader = new InputStreamReader(Files.newInputStream(source), StandardCharsets.UTF_8)) {
+			return read(reader, source, target, settings);
+		}
+	}
+
+	/**
+	 * Read a new object out of a string.
+	 *
+	 * @param rawData The data to read.
+	 * @return A new object holding the data from the string.
+	 */
+	public T readString(String rawData) {
+		return readString(rawData, DataReader.getDefaultReader());
+	}
+
+	/**
+	 * Read a new object out of a string with the settings of a reader.
+	 *
+	 * @param rawData The data to read.
+	 * @param settings The reader whose settings the data is scanned with.
+	 * @return A new object holding the data from the string.
+	 */
+	public T readString(String rawData, DataReader settings) {
+		try {
+			return read(new StringReader(rawData), null, newInstance(), settings);
+		}
+		catch (IOException e) {
+			// A StringReader only throws if it has been closed, which ours never is.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read a new object from a reader. The reader is read to its end but is not closed.
+	 *
+	 * @param source The reader to read the data from.
+	 * @return A new object holding the data from the reader.
+	 * @throws IOException if an I/O error occurs while reading from the reader.
+	 */
+	public T read(Reader source) throws IOException {
+		return read(source, newInstance());
+	}
+
+	/**
+	 * Read data from a reader into an existing object. The reader is read to its end but is not closed.
+	 * Fields that the data doesn't mention keep their values.
+	 *
+	 * @param source The reader to read the data from.
+	 * @param target The object to read the data into.
+	 * @return The target.
+	 * @throws IOException if an I/O error occurs while reading from the reader.
+	 */
+	public T read(Reader source, T target) throws IOException {
+		return read(source, null, target, DataReader.getDefaultReader());
+	}
+
+	/**
+	 * Read data from a reader into an existing object with the settings of a DataReader.
+	 * The reader is read to its end but is not closed. Fields that the data doesn't mention keep their values.
+	 *
+	 * @param source The reader to read the data from.
+	 * @param target The object to read the data into.
+	 * @param settings The DataReader whose settings the data is scanned with.
+	 * @return The target.
+	 * @throws IOException if an I/O error occurs while reading from the reader.
+	 */
+	public T read(Reader source, T target, DataReader settings) throws IOException {
+		return read(source, null, target, settings);
+	}
+
+	/**
+	 * Read data from a reader into an existing object.
+	 *
+	 * @param source The reader to read the data from.
+	 * @param path The file the reader reads, or null if it doesn't read a file.
+	 * @param target The object to read the data into.
+	 * @param settings The DataReader whose settings the data is scanned with.
+	 * @return The target.
+	 * @throws IOException if an I/O error occurs while reading from the reader.
+	 */
+	private T read(Reader source, Path path, final T target, DataReader settings) throws IOException {
+		final ReaderDataScanner scanner = settings.configure(new ReaderDataScanner(source), path);
+		final ScannedValue value = new ScannedValue();
+		scanner.readFields(new DataScanner.FieldHandler() {
+			@Override
+			public boolean readField(String fieldName) throws IOException {
+				return scanField(scanner, fieldName, value);
+			}
+
+			@Override
+			public void endField(String fieldName) {
+				// The value is only set once the field has ended with a semicolon.
+				if (value.binding != null)
+					value.setOn(target);
+			}
+		});
+		return target;
+	}
+
+	/**
+	 * Bind a map that has already been read, such as one from DataReader or BinaryDataReader, onto a new object.
+	 *
+	 * @param data The map to bind.
+	 * @return A new object holding the data from the map.
+	 */
+	public T bind(Map<?, ?> data) {
+		return bind(data, newInstance());
+	}
+
+	/**
+	 * Bind a map that has already been read onto an existing object.
+	 * Fields that the map doesn't mention keep their values.
+	 *
+	 * @param data The map to bind.
+	 * @param target The object to bind the map onto.
+	 * @return The target.
+	 */
+	public T bind(Map<?, ?> data, T target) {
+		for (Map.Entry<?, ?> entry : data.entrySet()) {
+			FieldBinding binding = fields.get(entry.getKey());
+			if (binding != null)
+				bindValue(target, binding, entry.getValue());
+		}
+		return target;
+	}
+
+	/**
+	 * Make a new instance of the bound class.
+	 *
+	 * @return The new instance.
+	 */
+	@SuppressWarnings("unchecked")
+	private T newInstance() {
+		try {
+			return (T)(Object)constructor.invokeExact();
+		}
+		catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * Scan the value of a field without setting it.
+	 *
+	 * @param scanner The scanner, positioned at the value.
+	 * @param fieldName The name of the field.
+	 * @param value Where to put the value. Its binding is left null if the class has no such field.
+	 * @return False if the value had a syntax error or didn't fit the field.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private boolean scanField(DataScanner scanner, String fieldName, ScannedValue value) throws IOException {
+		FieldBinding binding = fields.get(fieldName);
+		value.binding = null;
+
+		// Data fields that aren't in the class are read and thrown away.
+		if (binding == null)
+			return scanner.readValue() != null;
+
+		switch (binding.kind) {
+			case BOOLEAN: {
+				Boolean b = scanBoolean(scanner, binding);
+				if (b == null)
+					return false;
+				value.booleanValue = b;
+				break;
+			}
+			case INT:
+				if (!scanInt(scanner, binding, false))
+					return false;
+				value.intValue = scanner.intNumber();
+				break;
+			case LONG:
+				if (!scanInt(scanner, binding, true))
+					return false;
+				value.longValue = scanner.longNumber();
+				break;
+			case FLOAT:
+				if (!scanFloat(scanner, binding, false))
+					return false;
+				value.floatValue = scanner.floatNumber();
+				break;
+			case DOUBLE:
+				if (!scanFloat(scanner, binding, true))
+					return false;
+				value.doubleValue = scanner.doubleNumber();
+				break;
+			case VALUE: {
+				Object v = scanner.readValue();
+				if (v == null)
+					return false;
+				if (!binding.field.getType().isInstance(v)) {
+					mismatch(scanner, binding, binding.field.getType().getSimpleName());
+					return false;
+				}
+				value.objectValue = v;
+				break;
+			}
+			default: {
+				Object v;
+				switch (binding.kind) {
+					case STRING: v = scanString(scanner, binding); break;
+					case BOOLEAN_ARRAY: v = scanBooleanArray(scanner, binding); break;
+					case INT_ARRAY: v = scanIntArray(scanner, binding); break;
+					case FLOAT_ARRAY: v = scanFloatArray(scanner, binding); break;
+					case STRING_ARRAY: v = scanObjectArray(scanner, binding); break;
+					case BOUND: v = binding.getBinder().scanObject(scanner, binding); break;
+					default: v = scanObjectArray(scanner, binding); break;
+				}
+				if (v == null)
+					return false;
+				value.objectValue = v;
+				break;
+			}
+		}
+		value.binding = binding;
+		return true;
+	}
+
+	/**
+	 * Scan a new object of the bound class out of a map whose keys are field names.
+	 *
+	 * @param scanner The scanner, positioned at the map.
+	 * @param binding The field the object is for.
+	 * @return The object, or null if there was a syntax error.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private Object scanObject(DataScanner scanner, FieldBinding binding) throws IOException {
+		if (!scanner.consume('<')) {
+			mismatch(scanner, binding, "a map");
+			return null;
+		}
+		Object target = newInstance();
+		ScannedValue value = new ScannedValue();
+		while (!scanner.consume('>')) {
+			if (scanner.peekValue() != '"') {
+				scanner.syntaxError("The keys of maps read into %s must be strings.", type.getName());
+				return null;
+			}
+			String key = scanner.readString();
+			if (key == null)
+				return null;
+			if (!scanner.consume(':')) {
+				scanner.syntaxError("Failed to find : after a map key.");
+				return null;
+			}
+			// A syntax error throws the whole object away, so values can be set as soon as they are scanned.
+			if (!scanField(scanner, key, value))
+				return null;
+			if (value.binding != null)
+				value.setOn(target);
+			if (!scanner.consume(',') && scanner.peekValue() != '>') {
+				scanner.syntaxError("Expected , or > after a map pair.");
+				return null;
+			}
+		}
+		return target;
+	}
+
+	private static boolean[] scanBooleanArray(DataScanner scanner, FieldBinding binding) throws IOException {
+		if (!beginArray(scanner, binding))
+			return null;
+		boolean[] values = new boolean[8];
+		int size = 0;
+		while (!scanner.consume('}')) {
+			Boolean value = scanBoolean(scanner, binding);
+			if (value == null || !endElement(scanner))
+				return null;
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+		return Arrays.copyOf(values, size);
+	}
+
+	private static int[] scanIntArray(DataScanner scanner, FieldBinding binding) throws IOException {
+		if (!beginArray(scanner, binding))
+			return null;
+		int[] values = new int[8];
+		int size = 0;
+		while (!scanner.consume('}')) {
+			if (!scanInt(scanner, binding, false))
+				return null;
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = scanner.intNumber();
+			if (!endElement(scanner))
+				return null;
+		}
+		return Arrays.copyOf(values, size);
+	}
+
+	private static float[] scanFloatArray(DataScanner scanner, FieldBinding binding) throws IOException {
+		if (!beginArray(scanner, binding))
+			return null;
+		float[] values = new float[8];
+		int size = 0;
+		while (!scanner.consume('}')) {
+			if (!scanFloat(scanner, binding, false))
+				return null;
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = scanner.floatNumber();
+			if (!endElement(scanner))
+				return null;
+		}
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Scan a String[] or an array of a bound class.
+	 */
+	private static Object[] scanObjectArray(DataScanner scanner, FieldBinding binding) throws IOException {
+		if (!beginArray(scanner, binding))
+			return null;
+		Class<?> elementType = binding.field.getType().getComponentType();
+		Object[] values = (Object[])Array.newInstance(elementType, 8);
+		int size = 0;
+		while (!scanner.consume('}')) {
+			Object value;
+			if (binding.kind == Kind.STRING_ARRAY)
+				value = scanString(scanner, binding);
+			else
+				value = binding.getBinder().scanObject(scanner, binding);
+			if (value == null || !endElement(scanner))
+				return null;
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+		return Arrays.copyOf(values, size);
+	}
+
+	private static boolean beginArray(DataScanner scanner, FieldBinding binding) throws IOException {
+		if (scanner.consume('{'))
+			return true;
+		mismatch(scanner, binding, "an array");
+		return false;
+	}
+
+	/**
+	 * Check that an array element is followed by a comma or the end of the array, consuming the comma.
+	 */
+	private static boolean endElement(DataScanner scanner) throws IOException {
+		if (scanner.consume(',') || scanner.peekValue() == '}')
+			return true;
+		scanner.syntaxError("Expected , or } after an array element.");
+		return false;
+	}
+
+	private static Boolean scanBoolean(DataScanner scanner, FieldBinding binding) throws IOException {
+		if (!DataScanner.isLetter(scanner.peekValue())) {
+			mismatch(scanner, binding, "a boolean");
+			return null;
+		}
+		return scanner.readBoolean();
+	}
+
+	private static String scanString(DataScanner scanner, FieldBinding binding) throws IOException {
+		if (scanner.peekValue() != '"') {
+			mismatch(scanner, binding, "a string");
+			return null;
+		}
+		return scanner.readString();
+	}
+
+	private static boolean scanInt(DataScanner scanner, FieldBinding binding, boolean wide) throws IOException {
+		int c = scanner.peekValue();
+		if (c != '-' && !DataScanner.isDigit(c)) {
+			mismatch(scanner, binding, "an integer");
+			return false;
+		}
+		if (!scanner.scanNumber(wide))
+			return false;
+		if (scanner.numberIsFloat()) {
+			mismatch(scanner, binding, "an integer");
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean scanFloat(DataScanner scanner, FieldBinding binding, boolean wide) throws IOException {
+		int c = scanner.peekValue();
+		if (c != '-' && !DataScanner.isDigit(c)) {
+			mismatch(scanner, binding, "a number");
+			return false;
+		}
+		return scanner.scanNumber(wide);
+	}
+
+	private static void mismatch(DataScanner scanner, FieldBinding binding, String expected) {
+		if (!scanner.isReportingErrors())
+			return;
+		scanner.syntaxError("Expected " + expected + " for " + binding.field.getName()
+				+ " in " + binding.field.getDeclaringClass().getName() + ".");
+	}
+
+	/**
+	 * Set a field from a value that has already been read.
+	 *
+	 * @param target The object to set the field of.
+	 * @param binding The field.
+	 * @param value The value to set it to.
+	 */
+	private static void bindValue(Object target, FieldBinding binding, Object value) {
+		Object converted = convert(binding, binding.kind, value);
+		if (converted == null) {
+			Log.getDefaultLog().error("Can't bind " + value + " to " + binding.field.getName()
+					+ " in " + binding.field.getDeclaringClass().getName() + ".");
+			return;
+		}
+		switch (binding.kind) {
+			case BOOLEAN: set(binding.setter, target, ((Boolean)converted).booleanValue()); break;
+			case INT: set(binding.setter, target, ((Integer)converted).intValue()); break;
+			case LONG: set(binding.setter, target, ((Number)converted).longValue()); break;
+			case FLOAT: set(binding.setter, target, ((Number)converted).floatValue()); break;
+			case DOUBLE: set(binding.setter, target, toDouble((Number)converted)); break;
+			default: set(binding.setter, target, converted); break;
+		}
+	}
+
+	/**
+	 * Convert a value that has already been read into what a field holds.
+	 *
+	 * @param binding The field.
+	 * @param kind How the field, or the elements of the array field, are bound.
+	 * @param value The value to convert.
+	 * @return The converted value, boxed for primitive fields, or null if the value doesn't fit.
+	 */
+	private static Object convert(FieldBinding binding, Kind kind, Object value) {
+		switch (kind) {
+			case BOOLEAN:
+				return (value instanceof Boolean) ? value : null;
+			case INT:
+				return (value instanceof Integer) ? value : null;
+			case LONG:
+				return (value instanceof Integer || value instanceof Long) ? value : null;
+			case FLOAT:
+				return (value instanceof Integer || value instanceof Float) ? value : null;
+			case DOUBLE:
+				return (value instanceof Integer || value instanceof Long || value instanceof Float
+						|| value instanceof Double) ? value : null;
+			case STRING:
+				return (value instanceof String) ? value : null;
+			case VALUE:
+				return binding.field.getType().isInstance(value) ? value : null;
+			case BOUND: {
+				if (!(value instanceof Map<?, ?>))
+					return null;
+				DataBinder<?> binder = binding.getBinder();
+				Object nested = binder.newInstance();
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+					FieldBinding nestedBinding = binder.fields.get(entry.getKey());
+					if (nestedBinding != null)
+						bindValue(nested, nestedBinding, entry.getValue());
+				}
+				return nested;
+			}
+			default: {
+				if (!(value instanceof Object[]))
+					return null;
+				Object[] elements = (Object[])value;
+				Kind elementKind;
+				switch (kind) {
+					case BOOLEAN_ARRAY: elementKind = Kind.BOOLEAN; break;
+					case INT_ARRAY: elementKind = Kind.INT; break;
+					case FLOAT_ARRAY: elementKind = Kind.FLOAT; break;
+					case STRING_ARRAY: elementKind = Kind.STRING; break;
+					default: elementKind = Kind.BOUND; break;
+				}
+				Object out = Array.newInstance(binding.field.getType().getComponentType(), elements.length);
+				for (int i = 0; i < elements.length; i++) {
+					Object element = convert(binding, elementKind, elements[i]);
+					if (element == null)
+						return null;
+					if (kind == Kind.FLOAT_ARRAY)
+						Array.setFloat(out, i, ((Number)element).floatValue());
+					else
+						Array.set(out, i, element);
+				}
+				return out;
+			}
+		}
+	}
+
+	/**
+	 * Widen a number to a double. Floats are widened through their decimal form, so that a 0.1
+	 * read by DataReader binds as 0.1 and not as the float nearest it.
+	 */
+	private static double toDouble(Number number) {
+		if (number instanceof Float)
+			return Double.parseDouble(number.toString());
+		return number.doubleValue();
+	}
+
+	private static void set(MethodHandle setter, Object target, boolean value) {
+		try {
+			setter.invokeExact(target, value);
+		}
+		catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static void set(MethodHandle setter, Object target, int value) {
+		try {
+			setter.invokeExact(target, value);
+		}
+		catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static void set(MethodHandle setter, Object target, long value) {
+		try {
+			setter.invokeExact(target, value);
+		}
+		catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static void set(MethodHandle setter, Object target, float value) {
+		try {
+			setter.invokeExact(target, value);
+		}
+		catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static void set(MethodHandle setter, Object target, double value) {
+		try {
+			setter.invokeExact(target, value);
+		}
+		catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static void set(MethodHandle setter, Object target, Object value) {
+		try {
+			setter.invokeExact(target, value);
+		}
+		catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/**
+	 * Rethrow something thrown by a method handle. Setters and constructors can only throw unchecked exceptions.
+	 */
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException)
+			throw (RuntimeException)t;
+		if (t instanceof Error)
+			throw (Error)t;
+		throw new IllegalStateException(t);
+	}
+
+}
@@ -0,0 +1,467 @@
+package org.haferutil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Caches the data read from files so that files that have not changed don't have to be parsed
+ * again. Parsed data is stored in the binary format of BinaryDataWriter, both in a cache directory
+ * on disk and in memory, and is decoded with a BinaryDataReader when it is served.
+ * <p>
+ * Cached data is keyed by the absolute path of its file and is used while the size and last
+ * modified time of the file are unchanged. When they have changed, the file is read and its
+ * content hash is compared to that of the cached data, so a file that was rewritten with the same
+ * contents still isn't parsed again. Cache files that can't be read or decoded are ignored, and
+ * the file is parsed again. The settings of the reader that change the data it reads are part of
+ * the key, so caches whose readers have different settings may share a directory. Data served from
+ * the cache has its strings interned in the reader's string pool, if it has one.
+ * <p>
+ * In memory, the most recently used data is kept up to a budget of bytes.
+ * A DataCache may be shared between threads.
+ *
+ * @author John Werner
+ *
+ */
+
+public class DataCache {
+
+	/**
+	 * The default number of bytes of encoded data to keep in memory.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 16 << 20;
+
+	private static final int CACHE_FILE_VERSION = 1;	// Written at the start of cache files so old ones are ignored.
+
+	/**
+	 * The encoded data of a file, along with what it was read from.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	private static final class Entry {
+
+		private final long size;			// The size of the file, in bytes.
+		private final long lastModified;	// The last modified time of the file, in milliseconds.
+		private final long contentHash;		// The CRC32 of the contents of the file.
+		private final byte[] encoded;		// The data of the file in the binary format.
+
+		private Entry(long size, long lastModified, long contentHash, byte[] encoded) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.contentHash = contentHash;
+			this.encoded = encoded;
+		}
+
+	}
+
+	private final Path directory;					// Where cache files are kept.
+	private final DataReader reader;				// Reads files that miss the cache.
+	private final LinkedHashMap<String, Entry> memory;	// The entries kept in memory, in order of use. Guarded by this.
+	private long memoryBudget;						// The most bytes of encoded data to keep in memory.
+	private long memoryUsed;						// The bytes of encoded data kept in memory.
+	private long memoryHits;
+	private long diskHits;
+	private long misses;
+
+	/**
+	 * Make a cache that keeps its files in the given directory and reads files with the default DataReader.
+	 *
+	 * @param directory The directory to keep cache files in. It is made if it does not exist.
+	 * @throws IOException if the directory can't be made.
+	 */
+	public DataCache(Path directory) throws IOException {
+		this(directory, DataReader.getDefaultReader(), DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Make a cache that keeps its files in the given directory.
+	 *
+	 * @param directory The directory to keep cache files in. It is made if it does not exist.
+	 * @param reader The reader to read files that miss the cache with.
+	 * @param memoryBudget The most bytes of encoded data to keep in memory.
+	 * @throws IOException if the directory can't be made.
+	 */
+	public DataCache(Path directory, DataReader reader, long memoryBudget) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.reader = reader;
+		memory = new LinkedHashMap<>(16, 0.75f, true);
+		setMemoryBudget(memoryBudget);
+	}
+
+	/**
+	 * Read the data from a file at a given path, from the cache if the file has not changed.
+	 *
+	 * @param pathString A string representing the file path.
+	 * @return A map of Strings to Objects that holds the loaded data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public Map<String, Object> readFile(String pathString) throws IOException {
+		return readFile(FileSystems.getDefault().getPath(pathString));
+	}
+
+	/**
+	 * Read the data from a file at a given path, from the cache if the file has not changed.
+	 * Each call returns a new map, which the caller may change freely.
+	 *
+	 * @param source A path representing the file.
+	 * @return A map of Strings to Objects that holds the loaded data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public Map<String, Object> readFile(Path source) throws IOException {
+		source = source.toAbsolutePath().normalize();
+		String key = keyFor(source);
+		BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+
+		// Look in memory. Entries never change, so they are decoded without holding the lock.
+		Entry entry;
+		boolean hit = false;
+		synchronized (this) {
+			entry = memory.get(key);
+			if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+				memoryHits++;
+				hit = true;
+			}
+		}
+		if (hit)
+			return decode(entry);
+
+		// Look on disk.
+		Path cacheFile = cacheFileFor(key);
+		if (entry == null)
+			entry = readCacheFile(cacheFile, key);
+		if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+			// Entries are only kept in memory once they have been decoded.
+			Map<String, Object> data = decodeCacheFile(entry, cacheFile);
+			if (data != null) {
+				synchronized (this) {
+					diskHits++;
+					remember(key, entry);
+				}
+				return data;
+			}
+			entry = null;
+		}
+
+		// The file may have changed, so read it. If its contents are what was cached, only the
+		// time it was modified needs to be updated.
+		byte[] contents = Files.readAllBytes(source);
+		long contentHash = hash(contents);
+		Map<String, Object> data = null;
+		if (entry != null && entry.size == contents.length && entry.contentHash == contentHash)
+			data = decodeCacheFile(entry, cacheFile);
+		boolean unchanged = (data != null);
+		byte[] encoded;
+		if (unchanged)
+			encoded = entry.encoded;
+		else {
+			data = reader.configure(new ByteBufferDataScanner(ByteBuffer.wrap(contents)), source).readFields();
+			encoded = new BinaryDataWriter().encode(data);
+		}
+		entry = new Entry(contents.length, lastModified, contentHash, encoded);
+		if (unchanged)
+			updateCacheFile(cacheFile, key, entry);
+		else
+			writeCacheFile(cacheFile, key, entry);
+		synchronized (this) {
+			if (unchanged)
+				diskHits++;
+			else
+				misses++;
+			remember(key, entry);
+		}
+		return data;
+	}
+
+	/**
+	 * Forget everything in memory. Cache files on disk are kept.
+	 */
+	public synchronized void clearMemory() {
+		memory.clear();
+		memoryUsed = 0;
+	}
+
+	/**
+	 * Get the most bytes of encoded data that are kept in memory.
+	 *
+	 * @return The memory budget, in bytes.
+	 */
+	public synchronized long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Set the most bytes of encoded data that are kept in memory. The least recently used data
+	 * is forgotten to stay within it. Use 0 to keep nothing in memory.
+	 *
+	 * @param budget The new memory budget, in bytes.
+	 */
+	public synchronized void setMemoryBudget(long budget) {
+		if (budget < 0)
+			throw new IllegalArgumentException("The budget parameter must not be negative.");
+		memoryBudget = budget;
+		trimMemory();
+	}
+
+	/**
+	 * Get the number of bytes of encoded data kept in memory.
+	 *
+	 * @return The bytes of memory used.
+	 */
+	public synchronized long getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	/**
+	 * Get the number of reads that were served from memory.
+	 *
+	 * @return The number of memory hits.
+	 */
+	public synchronized long getMemoryHits() {
+		return memoryHits;
+	}
+
+	/**
+	 * Get the number of reads that were served from the cache directory, including those whose
+	 * files had been modified without their contents changing.
+	 *
+	 * @return The number of disk hits.
+	 */
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+
+	/**
+	 * Get the number of reads that had to parse their files.
+	 *
+	 * @return The number of misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Keep an entry in memory, forgetting the least recently used entries if it goes over budget.
+	 * Must be called while holding the lock of this.
+	 *
+	 * @param key The key of the entry.
+	 * @param entry The entry to keep.
+	 */
+	private void remember(String key, Entry entry) {
+		Entry old = memory.put(key, entry);
+		if (old != null)
+			memoryUsed -= old.encoded.length;
+		memoryUsed += entry.encoded.length;
+		trimMemory();
+	}
+
+	/**
+	 * Forget the least recently used entries until the memory used is within budget.
+	 * Must be called while holding the lock of this.
+	 */
+	private void trimMemory() {
+		Iterator<Entry> it = memory.values().iterator();
+		while (memoryUsed > memoryBudget && it.hasNext()) {
+			memoryUsed -= it.next().encoded.length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Decode the data of an entry.
+	 *
+	 * @param entry The entry to decode.
+	 * @return The data.
+	 * @throws IOException if the data is not valid.
+	 */
+	private Map<String, Object> decode(Entry entry) throws IOException {
+		BinaryDataReader binaryReader = new BinaryDataReader();
+		binaryReader.setStringPool(reader.getStringPool());
+		return binaryReader.read(entry.encoded);
+	}
+
+	/**
+	 * Decode the data of an entry read from a cache file. If the data is not valid, the failure
+	 * is logged and the cache file is deleted.
+	 *
+	 * @param entry The entry to decode.
+	 * @param cacheFile The cache file the entry was read from.
+	 * @return The data, or null if it is not valid.
+	 */
+	private Map<String, Object> decodeCacheFile(Entry entry, Path cacheFile) {
+		try {
+			return decode(entry);
+		}
+		catch (IOException | RuntimeException e) {
+			Log.getDefaultLog().error("Ignoring corrupt cache file " + cacheFile + ": " + e.getMessage());
+			try {
+				Files.deleteIfExists(cacheFile);
+			}
+			catch (IOException e2) {
+				// The file is written again after the source is parsed.
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Get the key of a file: its path, followed by the settings of the reader that change the data
+	 * read from it.
+	 *
+	 * @param source The absolute path of the file.
+	 * @return The key.
+	 */
+	private String keyFor(Path source) {
+		return source + "|" + (reader.isUnescapingStrings() ? "unescaped" : "escaped")
+				+ "|" + ((reader.getStringPool() != null) ? "pooled" : "unpooled");
+	}
+
+	/**
+	 * Get the cache file for a key. The name of the file is a hash of the key, so different keys
+	 * may share a file; the key is stored in the file to tell them apart.
+	 *
+	 * @param key The key.
+	 * @return The path of the cache file.
+	 */
+	private Path cacheFileFor(String key) {
+		long keyHash = ((long)key.hashCode() << 32) | hash(key.getBytes(StandardCharsets.UTF_8));
+		return directory.resolve(String.format("%016x.hdat", keyHash));
+	}
+
+	/**
+	 * Read the entry in a cache file.
+	 *
+	 * @param cacheFile The cache file.
+	 * @param key The key the entry must have.
+	 * @return The entry, or null if the file does not exist, is not valid, or is for another key.
+	 */
+	private static Entry readCacheFile(Path cacheFile, String key) {
+		if (!Files.exists(cacheFile))
+			return null;
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(cacheFile)));
+			if (in.readInt() != CACHE_FILE_VERSION || !in.readUTF().equals(key))
+				return null;
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			long contentHash = in.readLong();
+			int length = in.readInt();
+			if (length < 0 || length > in.available())
+				throw new IOException("The length of the data is " + length + ", but " + in.available() + " bytes are left.");
+			byte[] encoded = new byte[length];
+			in.readFully(encoded);
+			return new Entry(size, lastModified, contentHash, encoded);
+		}
+		catch (IOException e) {
+			Log.getDefaultLog().error("Ignoring unreadable cache file " + cacheFile + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Write an entry to a cache file, replacing it in one step. Failing to write is logged,
+	 * since the data can still be read without the cache.
+	 *
+	 * @param cacheFile The cache file.
+	 * @param key The key of the entry.
+	 * @param entry The entry to write.
+	 */
+	private void writeCacheFile(Path cacheFile, String key, Entry entry) {
+		Path temp = null;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.encoded.length + key.length() + 64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(CACHE_FILE_VERSION);
+			out.writeUTF(key);
+			out.writeLong(entry.size);
+			out.writeLong(entry.lastModified);
+			out.writeLong(entry.contentHash);
+			out.writeInt(entry.encoded.length);
+			out.write(entry.encoded);
+
+			temp = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+			Files.write(temp, bytes.toByteArray());
+			try {
+				Files.move(temp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException e) {
+			Log.getDefaultLog().error("Failed to write cache file " + cacheFile + ": " + e.getMessage());
+		}
+		finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				}
+				catch (IOException e) {
+					// The temporary file is left behind.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Update the last modified time in the cache file of an entry whose file was rewritten with
+	 * the same contents, without writing the rest of the cache file again. If the cache file does
+	 * not hold the same contents of the same key, the whole file is written.
+	 *
+	 * @param cacheFile The cache file.
+	 * @param key The key of the entry.
+	 * @param entry The entry with its new last modified time.
+	 */
+	private void updateCacheFile(Path cacheFile, String key, Entry entry) {
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+			if (in.readInt() == CACHE_FILE_VERSION && in.readUTF().equals(key) && in.readLong() == entry.size) {
+				long timePosition = channel.position();
+				in.readLong();
+				if (in.readLong() == entry.contentHash) {
+					ByteBuffer time = ByteBuffer.allocate(8);
+					time.putLong(0, entry.lastModified);
+					while (time.hasRemaining())
+						channel.write(time, timePosition + time.position());
+					return;
+				}
+			}
+		}
+		catch (IOException e) {
+			// The whole file is written instead.
+		}
+		writeCacheFile(cacheFile, key, entry);
+	}
+
+	/**
+	 * Get the CRC32 of some bytes.
+	 *
+	 * @param bytes The bytes to hash.
+	 * @return The hash.
+	 */
+	private static long hash(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+
+}
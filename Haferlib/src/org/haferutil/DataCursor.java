@@ -0,0 +1,439 @@
+package org.haferutil;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Steps through data in the format read by DataReader one token at a time, without building
+ * any maps or arrays. Only the current token is held in memory, so inputs of any size can be
+ * processed in constant memory.
+ * <p>
+ * Each field is a FIELD token followed by the tokens of its value. An array is a BEGIN_ARRAY token,
+ * the tokens of its elements, and an END_ARRAY token. A map is a BEGIN_MAP token, then for each pair
+ * a MAP_KEY token, the tokens of the key, and the tokens of the value, then an END_MAP token.
+ * Numbers, strings and booleans are single tokens whose values are read with the value accessors.
+ * <p>
+ * When a field has a syntax error, the error is reported, the rest of the field is skipped, and an
+ * INVALID token is returned in place of the rest of its tokens. Any arrays and maps that were begun
+ * in the field are abandoned, so the next token is the next field.
+ *
+ * @author John Werner
+ *
+ */
+
+public class DataCursor implements AutoCloseable {
+
+	/**
+	 * The kinds of tokens in data.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	public enum Token {
+		/** The start of a field. Its name is available from getFieldName. */
+		FIELD,
+		BEGIN_ARRAY,
+		END_ARRAY,
+		BEGIN_MAP,
+		/** The next value is the key of a pair in a map. */
+		MAP_KEY,
+		END_MAP,
+		/** An integer. Its value is available from intValue. */
+		INT,
+		/** A float. Its value is available from floatValue. */
+		FLOAT,
+		/** A string. Its value is available from stringValue. */
+		STRING,
+		/** A boolean. Its value is available from booleanValue. */
+		BOOLEAN,
+		/** The rest of a field with a syntax error was skipped. */
+		INVALID,
+		/** There are no tokens left. */
+		END
+	}
+
+	// What is expected next in each level of nesting. Level 0 is the fields themselves.
+	private static final byte BEFORE_FIELD = 0;
+	private static final byte BEFORE_FIELD_VALUE = 1;
+	private static final byte AFTER_FIELD_VALUE = 2;
+	private static final byte BEFORE_ELEMENT = 3;
+	private static final byte AFTER_ELEMENT = 4;
+	private static final byte BEFORE_KEY = 5;
+	private static final byte BEFORE_KEY_VALUE = 6;
+	private static final byte AFTER_KEY = 7;
+	private static final byte AFTER_VALUE = 8;
+
+	private final DataScanner scanner;
+	private final Reader ownedReader;	// A reader made by this, which close closes. Null if there isn't one.
+	private byte[] states;				// What is expected next at each level of nesting.
+	private int depth;					// The current level of nesting.
+	private Token token;				// The current token.
+	private String fieldName;			// The name of the current field.
+	private String stringValue;			// The value of the current token, if it is a string.
+	private boolean booleanValue;		// The value of the current token, if it is a boolean.
+
+	/**
+	 * Make a cursor over the UTF-8 encoded contents of a file. The file is streamed, and is closed by close.
+	 *
+	 * @param source A path representing the file.
+	 * @throws IOException if the file can't be opened.
+	 */
+	public DataCursor(Path source) throws IOException {
+		this(new InputStreamReader(Files.newInputStream(source), StandardCharsets.UTF_8), true);
+	}
+
+	/**
+	 * Make a cursor over the characters of a reader. The reader is not closed by close.
+	 *
+	 * @param source The reader to read from.
+	 */
+	public DataCursor(Reader source) {
+		this(source, false);
+	}
+
+	/**
+	 * Make a cursor over the UTF-8 encoded remaining bytes of a buffer. The buffer's position is not changed.
+	 *
+	 * @param source The buffer to read from.
+	 */
+	public DataCursor(ByteBuffer source) {
+		this(new ByteBufferDataScanner(source), null);
+	}
+
+	/**
+	 * Make a cursor over the characters of a string.
+	 *
+	 * @param source The string to read from.
+	 */
+	public DataCursor(String source) {
+		this(new CharSequenceDataScanner(source), null);
+	}
+
+	private DataCursor(Reader source, boolean ownsReader) {
+		this(new ReaderDataScanner(source), ownsReader ? source : null);
+	}
+
+	private DataCursor(DataScanner scanner, Reader ownedReader) {
+		this.scanner = scanner;
+		this.ownedReader = ownedReader;
+		states = new byte[8];
+	}
+
+	/**
+	 * Set the collector that syntax errors are recorded in. Errors are not recorded by default.
+	 *
+	 * @param diagnostics The diagnostics, or null to not record errors.
+	 */
+	public void setDiagnostics(DataDiagnostics diagnostics) {
+		scanner.setDiagnostics(diagnostics);
+	}
+
+	/**
+	 * Set whether syntax errors are logged to the default log. They are logged by default.
+	 *
+	 * @param logErrors True to log errors.
+	 */
+	public void setLoggingErrors(boolean logErrors) {
+		scanner.setLoggingErrors(logErrors);
+	}
+
+	/**
+	 * Set whether a backslash before a quote or another backslash in a string is removed.
+	 * Backslashes are kept as they appear by default. See DataReader.setUnescapingStrings.
+	 *
+	 * @param unescapeStrings True to remove escaping backslashes.
+	 */
+	public void setUnescapingStrings(boolean unescapeStrings) {
+		scanner.setUnescapingStrings(unescapeStrings);
+	}
+
+	/**
+	 * Move to the next token.
+	 *
+	 * @return The kind of the token.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	public Token nextToken() throws IOException {
+		if (token == Token.END)
+			return token;
+
+		switch (states[depth]) {
+			case BEFORE_FIELD:
+				scanner.skipWhitespace();
+				if (scanner.peek() == DataScanner.END)
+					return token = Token.END;
+				fieldName = scanner.readFieldName();
+				if (fieldName == null)
+					return invalid("Invalid field name.");
+				scanner.setFieldName(fieldName);
+				if (!scanner.consume('='))
+					return invalid("Failed to find = after field name %s.", fieldName);
+				states[depth] = BEFORE_FIELD_VALUE;
+				return token = Token.FIELD;
+
+			case BEFORE_FIELD_VALUE:
+				states[depth] = AFTER_FIELD_VALUE;
+				return beginValue();
+
+			case AFTER_FIELD_VALUE:
+				if (!scanner.consume(';'))
+					return invalid("Expected ; after the value of %s.", fieldName);
+				scanner.setFieldName(null);
+				states[depth] = BEFORE_FIELD;
+				return nextToken();
+
+			case BEFORE_ELEMENT:
+				// The last element doesn't need a comma after it.
+				if (scanner.consume('}')) {
+					depth--;
+					return token = Token.END_ARRAY;
+				}
+				states[depth] = AFTER_ELEMENT;
+				return beginValue();
+
+			case AFTER_ELEMENT:
+				if (scanner.consume(',')) {
+					states[depth] = BEFORE_ELEMENT;
+					return nextToken();
+				}
+				if (scanner.consume('}')) {
+					depth--;
+					return token = Token.END_ARRAY;
+				}
+				return invalid("Expected , or } after an array element.");
+
+			case BEFORE_KEY:
+				// The last pair doesn't need a comma after it.
+				if (scanner.consume('>')) {
+					depth--;
+					return token = Token.END_MAP;
+				}
+				states[depth] = BEFORE_KEY_VALUE;
+				return token = Token.MAP_KEY;
+
+			case BEFORE_KEY_VALUE:
+				states[depth] = AFTER_KEY;
+				return beginValue();
+
+			case AFTER_KEY:
+				if (!scanner.consume(':'))
+					return invalid("Failed to find : after a map key.");
+				states[depth] = AFTER_VALUE;
+				return beginValue();
+
+			case AFTER_VALUE:
+				if (scanner.consume(',')) {
+					states[depth] = BEFORE_KEY;
+					return nextToken();
+				}
+				if (scanner.consume('>')) {
+					depth--;
+					return token = Token.END_MAP;
+				}
+				return invalid("Expected , or > after a map pair.");
+
+			default:
+				throw new IllegalStateException("Invalid cursor state: " + states[depth]);
+		}
+	}
+
+	/**
+	 * Skip the rest of the current value. If the current token begins an array or a map, the
+	 * cursor moves to the token that ends it; if it is a field, the cursor moves to the last token
+	 * of its value. Otherwise, nothing happens.
+	 *
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	public void skipValue() throws IOException {
+		if (token == Token.FIELD)
+			nextToken();
+		if (token != Token.BEGIN_ARRAY && token != Token.BEGIN_MAP)
+			return;
+		int outerDepth = depth - 1;
+		while (depth > outerDepth && token != Token.INVALID)
+			nextToken();
+	}
+
+	/**
+	 * Get the current token.
+	 *
+	 * @return The kind of the current token, or null if nextToken has not been called.
+	 */
+	public Token getToken() {
+		return token;
+	}
+
+	/**
+	 * Get the number of arrays and maps the cursor is in.
+	 *
+	 * @return The depth of the cursor. This is 0 for the values of fields.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Get the name of the current field.
+	 *
+	 * @return The name of the field the cursor is in.
+	 */
+	public String getFieldName() {
+		return fieldName;
+	}
+
+	/**
+	 * Get the value of the current token as an int.
+	 *
+	 * @return The value of an INT token, or the value of a FLOAT token rounded towards zero.
+	 * @throws IllegalStateException if the current token is not a number.
+	 */
+	public int intValue() {
+		if (token == Token.INT)
+			return scanner.intNumber();
+		if (token == Token.FLOAT)
+			return (int)scanner.floatNumber();
+		throw new IllegalStateException("The current token is not a number: " + token);
+	}
+
+	/**
+	 * Get the value of the current token as a float.
+	 *
+	 * @return The value of a FLOAT or INT token.
+	 * @throws IllegalStateException if the current token is not a number.
+	 */
+	public float floatValue() {
+		if (token == Token.INT || token == Token.FLOAT)
+			return scanner.floatNumber();
+		throw new IllegalStateException("The current token is not a number: " + token);
+	}
+
+	/**
+	 * Get the value of the current token as a boolean.
+	 *
+	 * @return The value of a BOOLEAN token.
+	 * @throws IllegalStateException if the current token is not a boolean.
+	 */
+	public boolean booleanValue() {
+		if (token == Token.BOOLEAN)
+			return booleanValue;
+		throw new IllegalStateException("The current token is not a boolean: " + token);
+	}
+
+	/**
+	 * Get the value of the current token as a string.
+	 *
+	 * @return The value of a STRING token.
+	 * @throws IllegalStateException if the current token is not a string.
+	 */
+	public String stringValue() {
+		if (token == Token.STRING)
+			return stringValue;
+		throw new IllegalStateException("The current token is not a string: " + token);
+	}
+
+	/**
+	 * Close the file this cursor opened, if it opened one.
+	 *
+	 * @throws IOException if the file fails to close.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (ownedReader != null)
+			ownedReader.close();
+	}
+
+	/**
+	 * Read the first token of a value.
+	 *
+	 * @return The kind of the token.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private Token beginValue() throws IOException {
+		int c = scanner.peekValue();
+
+		// Strings are between quotes.
+		if (c == '"') {
+			stringValue = scanner.readString();
+			if (stringValue == null)
+				return invalid(null);
+			return token = Token.STRING;
+		}
+		// Arrays are between { and }.
+		if (c == '{') {
+			scanner.read();
+			push(BEFORE_ELEMENT);
+			return token = Token.BEGIN_ARRAY;
+		}
+		// Maps are between < and >.
+		if (c == '<') {
+			scanner.read();
+			push(BEFORE_KEY);
+			return token = Token.BEGIN_MAP;
+		}
+		// Numbers start with a digit or a minus sign.
+		if (c == '-' || DataScanner.isDigit(c)) {
+			if (!scanner.scanNumber())
+				return invalid(null);
+			return token = scanner.numberIsFloat() ? Token.FLOAT : Token.INT;
+		}
+		// The only other values are booleans.
+		if (DataScanner.isLetter(c)) {
+			Boolean value = scanner.readBoolean();
+			if (value == null)
+				return invalid(null);
+			booleanValue = value;
+			return token = Token.BOOLEAN;
+		}
+
+		if (c == DataScanner.END)
+			return invalid("Expected a value before the end of the input.");
+		return invalid("Unrecognized value starting with '%s'.", (char)c);
+	}
+
+	/**
+	 * Enter an array or a map.
+	 *
+	 * @param state What is expected first in it.
+	 */
+	private void push(byte state) {
+		depth++;
+		if (depth == states.length)
+			states = Arrays.copyOf(states, states.length * 2);
+		states[depth] = state;
+	}
+
+	/**
+	 * Abandon the current field because of a syntax error, skipping to its end.
+	 *
+	 * @param message A description of the error, or null if it has already been reported.
+	 * @return INVALID.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private Token invalid(String message) throws IOException {
+		return invalid(message, null);
+	}
+
+	/**
+	 * Abandon the current field because of a syntax error, skipping to its end.
+	 *
+	 * @param format A description of the error with %s where the detail goes, or null if it has already been reported.
+	 * @param detail What goes into the description.
+	 * @return INVALID.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private Token invalid(String format, Object detail) throws IOException {
+		if (format != null)
+			scanner.syntaxError(format, detail);
+		scanner.skipField();
+		depth = 0;
+		states[0] = BEFORE_FIELD;
+		return token = Token.INVALID;
+	}
+
+}
@@ -0,0 +1,177 @@
+package org.haferutil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the syntax errors found while reading data, with where in the input each one is.
+ * Give one to a DataReader or a DataCursor to find out which fields of the input were skipped and why.
+ * <p>
+ * Only the parts of each message are kept when an error is found; the message itself is built
+ * when it is asked for, so collecting errors costs little even when there are many of them.
+ * A DataDiagnostics may be shared between threads.
+ *
+ * @author John Werner
+ *
+ */
+
+public class DataDiagnostics {
+
+	/**
+	 * A syntax error found in some input.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	public static final class Diagnostic {
+
+		private final String source;	// The name of the input, or null if it doesn't have one.
+		private final String fieldName;	// The field the error is in, or null if it isn't known.
+		private final int line;
+		private final int column;
+		private final int offset;
+		private final String format;	// The message, with %s where the detail goes.
+		private final Object detail;	// What goes into the message, or null if it has nothing to go in it.
+
+		Diagnostic(String source, String fieldName, int line, int column, int offset, String format, Object detail) {
+			this.source = source;
+			this.fieldName = fieldName;
+			this.line = line;
+			this.column = column;
+			this.offset = offset;
+			this.format = format;
+			this.detail = detail;
+		}
+
+		/**
+		 * Get the name of the input the error is in.
+		 *
+		 * @return The path of the file the error is in, or null if the input was not read from a file.
+		 */
+		public String getSource() {
+			return source;
+		}
+
+		/**
+		 * Get the name of the field the error is in.
+		 *
+		 * @return The name of the field, or null if the error is in a field name or the field isn't known.
+		 */
+		public String getFieldName() {
+			return fieldName;
+		}
+
+		/**
+		 * Get the line the error was found on.
+		 *
+		 * @return The line number, starting from 1.
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * Get the column the error was found at. Columns of byte input count bytes, not characters.
+		 *
+		 * @return The column number, starting from 1.
+		 */
+		public int getColumn() {
+			return column;
+		}
+
+		/**
+		 * Get the offset in the input at which the error was found.
+		 *
+		 * @return The number of characters, or bytes for byte input, before the error.
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Get a description of the error.
+		 *
+		 * @return The message of the error.
+		 */
+		public String getMessage() {
+			if (detail == null)
+				return format;
+			return String.format(format, detail);
+		}
+
+		/**
+		 * @return The source, line, column and message of the error, in the form source:line:column: message.
+		 */
+		@Override
+		public String toString() {
+			StringBuilder out = new StringBuilder();
+			if (source != null)
+				out.append(source).append(':');
+			out.append(line).append(':').append(column).append(": ").append(getMessage());
+			return out.toString();
+		}
+
+	}
+
+	private final ArrayList<Diagnostic> diagnostics;	// Guarded by this.
+
+	/**
+	 * Constructor.
+	 */
+	public DataDiagnostics() {
+		diagnostics = new ArrayList<>();
+	}
+
+	/**
+	 * Record an error.
+	 *
+	 * @param diagnostic The error.
+	 */
+	synchronized void add(Diagnostic diagnostic) {
+		diagnostics.add(diagnostic);
+	}
+
+	/**
+	 * Get the errors that have been found.
+	 *
+	 * @return A copy of the list of errors, in the order they were found.
+	 */
+	public synchronized List<Diagnostic> getDiagnostics() {
+		return new ArrayList<>(diagnostics);
+	}
+
+	/**
+	 * Get the number of errors that have been found.
+	 *
+	 * @return The number of errors.
+	 */
+	public synchronized int size() {
+		return diagnostics.size();
+	}
+
+	/**
+	 * @return True if no errors have been found.
+	 */
+	public synchronized boolean isEmpty() {
+		return diagnostics.isEmpty();
+	}
+
+	/**
+	 * Forget the errors that have been found.
+	 */
+	public synchronized void clear() {
+		diagnostics.clear();
+	}
+
+	/**
+	 * @return Every error that has been found, one per line.
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder out = new StringBuilder();
+		for (Diagnostic diagnostic : diagnostics)
+			out.append(diagnostic).append('\n');
+		return out.toString();
+	}
+
+}
@@ -0,0 +1,247 @@
+package org.haferutil;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and saves data files on a background I/O thread, so the threads that ask for them never
+ * block on the disk. Jobs run one at a time in the order they were requested.
+ * <p>
+ * Saves are written to a temporary file next to their destination, which is then moved over the
+ * destination in one step, so a save that is interrupted never leaves a partly written file behind.
+ * Saving to a path that already has a save waiting to run replaces the data of the waiting save
+ * instead of queueing another one, unless a load of that path was requested after the waiting save.
+ * A saved file keeps the permissions of the file it replaces.
+ * <p>
+ * The I/O thread is a daemon thread, so it doesn't keep the program running. Call close before
+ * the program exits to make sure that the saves that have been requested are finished.
+ *
+ * @author John Werner
+ *
+ */
+
+public class DataIOService implements AutoCloseable {
+
+	/**
+	 * A save that is waiting to run or running. Its data may be replaced until it starts running.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	private final class SaveJob implements Callable<Void> {
+
+		private final Path destination;
+		private final FutureTask<Void> future;
+		private Map<String, Object> data;		// Guarded by pendingSaves.
+
+		private SaveJob(Path destination, Map<String, Object> data) {
+			this.destination = destination;
+			this.data = data;
+			future = new FutureTask<>(this);
+		}
+
+		@Override
+		public Void call() throws IOException {
+			// Once the job starts, later saves to the same path need a job of their own.
+			Map<String, Object> toWrite;
+			synchronized (pendingSaves) {
+				if (pendingSaves.get(destination) == this)
+					pendingSaves.remove(destination);
+				toWrite = data;
+				data = null;
+			}
+			writeAtomically(destination, toWrite);
+			return null;
+		}
+
+	}
+
+	private final ExecutorService executor;
+	private final DataReader reader;
+	private final HashMap<Path, SaveJob> pendingSaves;	// The saves that have not started running yet, by destination.
+
+	/**
+	 * Make a DataIOService that loads files with the default DataReader.
+	 */
+	public DataIOService() {
+		this(DataReader.getDefaultReader());
+	}
+
+	/**
+	 * Make a DataIOService that loads files with the given reader.
+	 *
+	 * @param reader The reader to load files with.
+	 */
+	public DataIOService(DataReader reader) {
+		this.reader = reader;
+		pendingSaves = new HashMap<>();
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "DataIOService");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Load the data from a file at a given path in the background.
+	 *
+	 * @param pathString A string representing the file path.
+	 * @return A future that holds the loaded data from the file, or fails with the IOException
+	 *         that kept the file from being read.
+	 */
+	public Future<Map<String, Object>> load(String pathString) {
+		return load(FileSystems.getDefault().getPath(pathString));
+	}
+
+	/**
+	 * Load the data from a file at a given path in the background. The load runs after every
+	 * save that was requested before it, so it sees the data they save, and before every save
+	 * that is requested after it.
+	 *
+	 * @param source A path representing the file.
+	 * @return A future that holds the loaded data from the file, or fails with the IOException
+	 *         that kept the file from being read.
+	 */
+	public Future<Map<String, Object>> load(final Path source) {
+		synchronized (pendingSaves) {
+			// Later saves to the path must not replace the data of a save that runs before this.
+			pendingSaves.remove(source.toAbsolutePath().normalize());
+			return executor.submit(new Callable<Map<String, Object>>() {
+				@Override
+				public Map<String, Object> call() throws IOException {
+					return reader.readFile(source);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Save data to a file at a given path in the background.
+	 *
+	 * @param pathString A string representing the file path.
+	 * @param data The data to save. It must not be modified until the returned future is done.
+	 * @return A future that is done when the data has been saved, or fails with the IOException
+	 *         that kept it from being saved.
+	 */
+	public Future<Void> save(String pathString, Map<String, Object> data) {
+		return save(FileSystems.getDefault().getPath(pathString), data);
+	}
+
+	/**
+	 * Save data to a file at a given path in the background. If a save to the same path is
+	 * still waiting to run, and no load of the path has been requested since, it saves this
+	 * data instead and its future is returned.
+	 *
+	 * @param destination A path representing the file.
+	 * @param data The data to save. It must not be modified until the returned future is done.
+	 * @return A future that is done when the data has been saved, or fails with the IOException
+	 *         that kept it from being saved.
+	 */
+	public Future<Void> save(Path destination, Map<String, Object> data) {
+		destination = destination.toAbsolutePath().normalize();
+		synchronized (pendingSaves) {
+			SaveJob pending = pendingSaves.get(destination);
+			if (pending != null) {
+				pending.data = data;
+				return pending.future;
+			}
+			SaveJob job = new SaveJob(destination, data);
+			executor.execute(job.future);
+			pendingSaves.put(destination, job);
+			return job.future;
+		}
+	}
+
+	/**
+	 * Stop accepting jobs and wait for the jobs that have been requested to finish.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+				continue;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Write data to a temporary file and then move it over the destination.
+	 *
+	 * @param destination The file to write to.
+	 * @param data The data to write.
+	 * @throws IOException if the data can't be written.
+	 */
+	private static void writeAtomically(Path destination, Map<String, Object> data) throws IOException {
+		Path temp = createTempFile(destination);
+		try {
+			// Make sure the data is on the disk before it replaces the old file.
+			FileOutputStream stream = new FileOutputStream(temp.toFile());
+			try (DataWriter writer = new DataWriter(stream)) {
+				writer.setFlushPolicy(DataWriter.FlushPolicy.MANUAL);
+				writer.write(data);
+				writer.flush();
+				stream.getFD().sync();
+			}
+
+			// The new file replaces the old one, so it should be just as accessible.
+			PosixFileAttributeView view = Files.getFileAttributeView(destination, PosixFileAttributeView.class);
+			if (view != null && Files.exists(destination))
+				Files.setPosixFilePermissions(temp, view.readAttributes().permissions());
+
+			try {
+				Files.move(temp, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Make a new temporary file next to a destination. Unlike Files.createTempFile, this gives it
+	 * the permissions that new files normally get, rather than ones only its owner can read.
+	 *
+	 * @param destination The file the temporary file will replace.
+	 * @return The temporary file.
+	 * @throws IOException if the file can't be made.
+	 */
+	private static Path createTempFile(Path destination) throws IOException {
+		Path directory = destination.getParent();
+		String prefix = destination.getFileName().toString() + '.';
+		while (true) {
+			try {
+				return Files.createFile(directory.resolve(prefix + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp"));
+			}
+			catch (FileAlreadyExistsException e) {
+				// Try another name.
+			}
+		}
+	}
+
+}
@@ -1,408 +1,343 @@
-package org.haferutil;
-
-import java.nio.file.FileSystems;
-import java.nio.file.Path;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Scanner;
-import java.util.TreeMap;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-
-/**
- * Reads data structures from files.
- * 
- * @author John Werner
- *
- */
-
-public class DataReader {
-
-	private static final String TRUE = "true";
-	private static final String FALSE = "false";
-
-	private Matcher intMatcher;
-	private Matcher floatMatcher;
-	private Matcher fieldNameMatcher;
-	private Matcher equalsMatcher;
-
-	/**
-	 * Create a DataReader.
-	 */
-	public DataReader() {
-		intMatcher = Pattern.compile("-?\\d+").matcher("");
-		floatMatcher = Pattern.compile("-?\\d+\\.\\d+").matcher("");
-		fieldNameMatcher = Pattern.compile("[a-zA-Z]\\w*").matcher("");
-		equalsMatcher = Pattern.compile("\\s*=").matcher("");
-	}
-
-	/**
-	 * Read the data from a file at a given path.
-	 * 
-	 * @param pathString A string representing the file path.
-	 * @return A map of Strings to Objects that holds the loaded data from the file.
-	 * @throws IOException if an I/O error occurs while reading the file.
-	 */
-	public Map<String, Object> readFile(String pathString) throws IOException {
-		return readFile(FileSystems.getDefault().getPath(pathString));
-	}
-
-	/**
-	 * Read the data from a file at a given path.
-	 * 
-	 * @param source A path representing the file.
-	 * @return A map of Strings to Objects that holds the loaded data from the file.
-	 * @throws IOException if an I/O error occurs while reading the file.
-	 */
-	public Map<String, Object> readFile(Path source) throws IOException {
-		// Get a scanner for the file. Make sure it closes if it fails.
-		Scanner scan = null;
-	
-		// Read the entire file in as a string.
-		scan = new Scanner(source);
-		StringBuilder contents = new StringBuilder();
-		while (scan.hasNextLine()) {
-			contents.append(scan.nextLine());
-		}
-		scan.close();
-
-		// Read the string.
-		return readString(contents.toString());
-	}
-
-	/**
-	 * Read the data out of a string.
-	 * 
-	 * @param rawData A string, most typically the entire contents of a file, that the data is read from.
-	 * @return A map of Strings to Objects that holds the loaded data from the string.
-	 */
-	public Map<String, Object> readString(String rawData) {
-		// Get rid of trailing and leading whitespace.
-		rawData = rawData.trim();
-
-		// Break the raw data into tokens and trim them.
-		// Count the number of non-string semicolons.
-		int numTokens = 0;
-		for (int i = 0; i < rawData.length(); i++) {
-			char c = rawData.charAt(i);
-			if (c == '\"') {
-				i = indexOfStringClose(rawData, i);
-			}
-			else if (c == ';') {
-				numTokens++;
-			}
-		}
-		
-		// Allocate an array for the tokens and make them.
-		String[] tokens = new String[numTokens];
-		int tokenIndex = 0;
-		int startToken = 0;
-		for (int i = 0; i < rawData.length(); i++) {
-			char c = rawData.charAt(i);
-			if (c == '\"') {
-				i = indexOfStringClose(rawData, i);
-			}
-			else if (c == ';') {
-				tokens[tokenIndex] = rawData.substring(startToken, i);
-				tokenIndex++;
-				startToken = i + 1;
-			}
-		}
-
-		// Look through the tokens and return the output TreeMap.
-		return buildMapFromTokens(tokens);
-	}
-
-	/**
-	 * Builds a Map of data from an array of tokens.
-	 * Tokens must be a field name followed by an = followed by a value. They must be trimmed.
-	 * 
-	 * @param tokens The tokens to make into a map.
-	 * @return A map made from the tokens.
-	 */
-	private Map<String, Object> buildMapFromTokens(String[] tokens) {
-		// Make the output TreeMap.
-		TreeMap<String, Object> out = new TreeMap<>();
-
-		// Look through the tokens for syntax errors.
-		for (int i = 0; i < tokens.length; i++) {
-			// Get the field name and the value.
-			fieldNameMatcher.reset(tokens[i]);
-			if (!fieldNameMatcher.find() || fieldNameMatcher.start() != 0) {
-				Log.getDefaultLog().error("SYNTAX ERROR: Invaid field name in: " + tokens[i]);
-				continue;
-			}
-			String fieldName = fieldNameMatcher.group();
-
-			// Make sure the field name is followed by an =.
-			equalsMatcher.reset(tokens[i]);
-			if (!equalsMatcher.find() || equalsMatcher.start() != fieldNameMatcher.end()) {
-				Log.getDefaultLog().error("SYNTAX ERROR: Failed to find = after field name.");
-				continue;
-			}
-
-			// Get the value, which is just everything after the =.
-			int valueStart = equalsMatcher.end();
-			if (valueStart >= tokens[i].length()) {
-				Log.getDefaultLog().error("SYNTAX ERROR: Expected value after = in: " + tokens[i]);
-				continue;
-			}
-			String rawValue = tokens[i].substring(valueStart);
-
-			// Parse the value. If it isn't null, add it to the output.
-			Object value = parseValue(rawValue);
-			if (value != null) {
-				out.put(fieldName, value);
-			}
-		}
-
-		// Return the output.
-		return out;
-	}
-
-	/**
-	 * Find the last character of a block enclosed by quotes in a string.
-	 * 
-	 * @param string The string to look in.
-	 * @param startIndex Where to start looking. Generally the opening quote.
-	 * @return The index of the first non-escaped quote after startIndex. -1 if none is found.
-	 */
-	private int indexOfStringClose(String string, int startIndex) {
-		for (int q = startIndex + 1; q < string.length(); q++) {
-			if (string.charAt(q) == '\\')
-				q++;
-			else if (string.charAt(q) == '"')
-				return q;
-		}
-		return -1;
-	}
-
-	/**
-	 * Find the last character of a block defined by an open and close character.
-	 * Sub-blocks are respected: calling indexOfBlockClose("{ {} }", 0, '{', '}') will
-	 * return 5, not 3.
-	 * 
-	 * @param string The string to look through.
-	 * @param startIndex The index to begin looking at. Generally the opening character of the block.
-	 * @param openBlock The character that opens blocks.
-	 * @param closeBlock The character that closes blocks.
-	 * @return The index of the closing character of the block. -1 if none is found.
-	 */
-	private int indexOfBlockClose(String string, int startIndex, char openBlock, char closeBlock) {
-		int numOpen = 1;
-		int q;
-		for (q = startIndex + 1; q < string.length() && numOpen > 0; q++) {
-			if (string.charAt(q) == openBlock)
-				numOpen++;
-			else if (string.charAt(q) == closeBlock)
-				numOpen--;
-		}
-		if (numOpen == 0)
-			return q - 1;
-		else
-			return -1;
-	}
-
-	/**
-	 * Parses a value string into a proper value object. Logs any syntax errors it finds.
-	 * 
-	 * @param value The string to parse.
-	 * @return The object that was made from value, or null if a syntax error was encountered.
-	 */
-	private Object parseValue(String value) {
-		// Trim the value.
-		value = value.trim();
-
-		// Is it a boolean?
-		if (value.equals(TRUE) || value.equals(FALSE))
-			return Boolean.parseBoolean(value);
-
-		// Is it an integer?
-		intMatcher.reset(value);
-		if (intMatcher.matches())
-			return Integer.parseInt(value);
-
-		// Is it a float?
-		floatMatcher.reset(value);
-		if (floatMatcher.matches())
-			return Float.parseFloat(value);
-
-		// Only numbers can have a length less than 2. If the length is less than 2, return true.
-		if (value.length() < 2) {
-			Log.getDefaultLog().error("SYNTAX ERROR: Non-number value too short to be valid: " + value);
-			return null;
-		}
-
-		// Is it a string?
-		if (value.charAt(0) == '\"' && value.charAt(value.length() - 1) == '\"') {
-			int stringEnd = indexOfStringClose(value, 0);
-			if (stringEnd != value.length() - 1) {
-				Log.getDefaultLog().error("SYNTAX ERROR: Unexpected end of string at " + stringEnd + " in " + value);
-				return null;
-			}
-			// Make and return the string if it's a valid string.
-			return value.substring(1, value.length() - 1);
-		}
-
-		// Is it an array?
-		// Arrays start and end with {} and contain values separated by commas.
-		if (value.charAt(0) == '{' && value.charAt(value.length() - 1) == '}') {
-			// Look through the array, parsing each value as it is seen.
-			ArrayList<Object> arrayBuilder = new ArrayList<>();
-			int subStart = 1;
-			for (int i = 1; i < value.length() - 1; i++) {
-				// If we have found the next subvalue to parse, parse it.
-				if (value.charAt(i) == ',') {
-					String sub = value.substring(subStart, i);
-					Object subValue = parseValue(sub);
-					// If we fail to parse the value, the array fails to be made as well.
-					if (subValue == null)
-						return null;
-					// Add the value to arrayBuilder.
-					arrayBuilder.add(subValue);
-					// Get ready to parse the next value.
-					subStart = i + 1;
-				}
-				// We need to make sure we skip over commas inside of string, array and map values.
-				else if (value.charAt(i) == '"') {
-					int endOfBlock = indexOfStringClose(value, i);
-					if (endOfBlock == -1) {
-						Log.getDefaultLog().error("SYNTAX ERROR: Unclosed string token in: " + value);
-						return null;
-					}
-					i = endOfBlock;
-				}
-				else if (value.charAt(i) == '{') {
-					int endOfBlock = indexOfBlockClose(value, i, '{', '}');
-					if (endOfBlock == -1) {
-						Log.getDefaultLog().error("SYNTAX ERROR: Unclosed array token in: " + value);
-						return null;
-					}
-					i = endOfBlock;
-				}
-				else if (value.charAt(i) == '<') {
-					int endOfBlock = indexOfBlockClose(value, i, '<', '>');
-					if (endOfBlock == -1) {
-						Log.getDefaultLog().error("SYNTAX ERROR: Unclosed map token in: " + value);
-						return null;
-					}
-					i = endOfBlock;
-				}
-			}
-			// Because the last element doesn't necesarily have a comma after it, parse the value
-			// of the last element which may not have been grabbed by the loop.
-			String lastElementString = value.substring(subStart, value.length() - 1).trim();
-			if (lastElementString.length() > 0) {
-				Object lastElement = parseValue(lastElementString);
-				if (lastElement == null)
-					return null;
-				arrayBuilder.add(lastElement);
-			}
-			// If we got through all that without returning, we have a valid array!
-			return arrayBuilder.toArray();
-		}
-
-		// Is it a map?
-		// Maps start and end with <> and contain key-value pairs of the format key : value, .
-		if (value.charAt(0) == '<' && value.charAt(value.length() - 1) == '>') {
-			// Look through the map, parsing each pair as it is seen.
-			Map<Object, Object> map = new LinkedHashMap<>();
-			int subStart = 1;
-			for (int i = 1; i < value.length() - 1; i++) {
-				// If we have found the next pair to parse, parse it.
-				if (value.charAt(i) == ',') {
-					// Get the pair string
-					String pairString = value.substring(subStart, i);
-					// Parse the pair.
-					Object[] pair = parseMapPair(pairString);
-					if (pair == null)
-						return null;
-					// Add the pair to the map.
-					map.put(pair[0], pair[1]);
-					// Get ready to parse the next value.
-					subStart = i + 1;
-				}
-				// We need to make sure we skip over commas inside of string, array and map values.
-				else if (value.charAt(i) == '"') {
-					int endOfBlock = indexOfStringClose(value, i);
-					if (endOfBlock == -1) {
-						Log.getDefaultLog().error("SYNTAX ERROR: Unclosed string token in: " + value);
-						return null;
-					}
-					i = endOfBlock;
-				}
-				else if (value.charAt(i) == '{') {
-					int endOfBlock = indexOfBlockClose(value, i, '{', '}');
-					if (endOfBlock == -1) {
-						Log.getDefaultLog().error("SYNTAX ERROR: Unclosed array token in: " + value);
-						return null;
-					}
-					i = endOfBlock;
-				}
-				else if (value.charAt(i) == '<') {
-					int endOfBlock = indexOfBlockClose(value, i, '<', '>');
-					if (endOfBlock == -1) {
-						Log.getDefaultLog().error("SYNTAX ERROR: Unclosed map token in: " + value);
-						return null;
-					}
-					i = endOfBlock;
-				}
-			}
-			// Because the last element doesn't necessarily have a comma after it, parse the value
-			// of the last element which may not have been grabbed by the loop.
-			String lastPairString = value.substring(subStart, value.length() - 1).trim();
-			if (lastPairString.length() > 0) {
-				// Parse the pair.
-				Object[] pair = parseMapPair(lastPairString);
-				if (pair == null)
-					return null;
-
-				// Add the pair to the map.
-				map.put(pair[0], pair[1]);
-			}
-			// If we got through all that without returning, we have a valid map!
-			return map;
-		}
-
-		// If we get here, it isn't anything, so return null.
-		Log.getDefaultLog().error("SYNTAX ERROR: Unrecognized value: " + value);
-		return null;
-	}
-
-	/**
-	 * Take a raw map pair string and make it into a key and a value.
-	 * 
-	 * @param pairString The pair string.
-	 * @return An array in the form {key, value}, or null if the pair was invalid.
-	 */
-	private Object[] parseMapPair(String pairString) {
-		// First we need to find the : that separates the key and value.
-		int colonIndex = -1;
-		for (int q = 0; q < pairString.length(); q++) {
-			if (pairString.charAt(q) == '\\')
-				q++;
-			else if (pairString.charAt(q) == ':') {
-				colonIndex = q;
-				break;
-			}
-		}
-		// If we didn't find a colon, return null.
-		if (colonIndex == -1) {
-			Log.getDefaultLog().error("SYNTAX ERROR: Failed to find ':' in pair: " + pairString);
-		}
-		// Get the key and value strings.
-		String pairKeyString = pairString.substring(0, colonIndex);
-		String pairValueString = pairString.substring(colonIndex + 1);
-		// Parse the key and value.
-		Object pairKey = parseValue(pairKeyString);
-		Object pairValue = parseValue(pairValueString);
-		// If we fail to parse the key or the value, the map fails to be made as well.
-		if (pairKey == null || pairValue == null)
-			return null;
-		// Return the pair.
-		return new Object[] { pairKey, pairValue };
-	}
-
-}
\ No newline at end of file
+package org.haferutil;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * Reads data structures from files.
+ *
+ * Input is scanned in a single streaming pass: the file is never held in memory as a whole,
+ * and values are built directly as their characters are read. Files at least as large as the
+ * mapped threshold are memory mapped and parsed straight out of the mapping instead of being
+ * streamed through a decoder. Mapping is off by default: a mapping is only released when it is
+ * garbage collected, and on some systems, Windows among them, a mapped file can't be replaced or
+ * deleted until then, so saving over a file that was just read may fail. Only turn it on for
+ * files that are not written back while the program runs.
+ *
+ * Files can also be read lazily, in which case they are only skimmed to find where each field
+ * is, and the value of a field is only parsed the first time it is looked at. This is faster when
+ * only some of the fields of a file are used.
+ *
+ * A StringPool may be given to a reader so that the field names and string values that
+ * repeat in and between the files it reads share one instance each.
+ *
+ * Fields with syntax errors are skipped, and reading goes on with the next field. The errors are
+ * logged by default, with the line and column they were found at. They may also be collected in
+ * a DataDiagnostics, and logging may be turned off so that loading many files does no work for
+ * errors that nobody looks at.
+ *
+ * A DataReader keeps no state between reads, so one reader may be shared by any number of
+ * threads. Settings such as the mapped threshold should be changed before a reader is shared.
+ *
+ * @author John Werner
+ *
+ */
+
+public class DataReader {
+
+	/**
+	 * The default size in bytes at and above which files are memory mapped, which is never.
+	 */
+	public static final long DEFAULT_MAPPED_THRESHOLD = Long.MAX_VALUE;
+
+	/**
+	 * Default reader for use singleton-style.
+	 */
+	private static final DataReader defaultReader = new DataReader();
+
+	public static DataReader getDefaultReader() {
+		return defaultReader;
+	}
+
+	private volatile long mappedThreshold;	// Files at least this many bytes long are memory mapped.
+	private volatile StringPool stringPool;	// If not null, field names and strings are interned in this.
+	private volatile DataDiagnostics diagnostics;	// If not null, syntax errors are recorded in this.
+	private volatile boolean logErrors;		// Whether syntax errors are logged.
+	private volatile boolean unescapeStrings;	// Whether escaping backslashes are removed from strings.
+
+	/**
+	 * Create a DataReader.
+	 */
+	public DataReader() {
+		mappedThreshold = DEFAULT_MAPPED_THRESHOLD;
+		logErrors = true;
+	}
+
+	/**
+	 * Get the size at and above which readFile memory maps files.
+	 *
+	 * @return The mapped threshold, in bytes.
+	 */
+	public long getMappedThreshold() {
+		return mappedThreshold;
+	}
+
+	/**
+	 * Set the size at and above which readFile memory maps files. Smaller files are streamed.
+	 * Use Long.MAX_VALUE to never map files, or 0 to always map them. Files are not mapped by
+	 * default, since a mapped file may not be replaceable until its mapping is garbage collected.
+	 *
+	 * @param threshold The new mapped threshold, in bytes.
+	 */
+	public void setMappedThreshold(long threshold) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("The threshold parameter must not be negative.");
+		mappedThreshold = threshold;
+	}
+
+	/**
+	 * Get the pool that field names and string values are interned in.
+	 *
+	 * @return The string pool, or null if strings are not interned.
+	 */
+	public StringPool getStringPool() {
+		return stringPool;
+	}
+
+	/**
+	 * Set the pool that field names and string values are interned in. Strings are not interned by default.
+	 *
+	 * @param pool The new string pool, or null to not intern strings.
+	 */
+	public void setStringPool(StringPool pool) {
+		stringPool = pool;
+	}
+
+	/**
+	 * Get the collector that syntax errors are recorded in.
+	 *
+	 * @return The diagnostics, or null if errors are not recorded.
+	 */
+	public DataDiagnostics getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * Set the collector that syntax errors are recorded in. Errors are not recorded by default.
+	 * Errors found in files are recorded with the paths of the files.
+	 *
+	 * @param diagnostics The new diagnostics, or null to not record errors.
+	 */
+	public void setDiagnostics(DataDiagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	/**
+	 * @return True if syntax errors are logged to the default log.
+	 */
+	public boolean isLoggingErrors() {
+		return logErrors;
+	}
+
+	/**
+	 * Set whether syntax errors are logged to the default log. They are logged by default.
+	 * When errors are neither logged nor recorded, nothing is done for them beyond skipping their fields.
+	 *
+	 * @param logErrors True to log errors.
+	 */
+	public void setLoggingErrors(boolean logErrors) {
+		this.logErrors = logErrors;
+	}
+
+	/**
+	 * @return True if backslashes that escape quotes and backslashes are removed from strings.
+	 */
+	public boolean isUnescapingStrings() {
+		return unescapeStrings;
+	}
+
+	/**
+	 * Set whether a backslash before a quote or another backslash in a string or expression is
+	 * removed, so that files written by a DataWriter that escapes strings read back as they were
+	 * written. This is off by default, since older files keep every backslash as it is written,
+	 * as in "C:\\dir", and would read differently with it on.
+	 *
+	 * @param unescapeStrings True to remove escaping backslashes.
+	 */
+	public void setUnescapingStrings(boolean unescapeStrings) {
+		this.unescapeStrings = unescapeStrings;
+	}
+
+	/**
+	 * Read the data from a file at a given path.
+	 *
+	 * @param pathString A string representing the file path.
+	 * @return A map of Strings to Objects that holds the loaded data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public Map<String, Object> readFile(String pathString) throws IOException {
+		return readFile(FileSystems.getDefault().getPath(pathString));
+	}
+
+	/**
+	 * Read the data from a file at a given path. The file is decoded as UTF-8.
+	 * The file is memory mapped if it is at least as large as the mapped threshold.
+	 *
+	 * @param source A path representing the file.
+	 * @return A map of Strings to Objects that holds the loaded data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public Map<String, Object> readFile(Path source) throws IOException {
+		long size = Files.size(source);
+		if (size >= mappedThreshold && size <= Integer.MAX_VALUE)
+			return readMappedFile(source);
+
+		try (Reader reader = new InputStreamReader(Files.newInputStream(source), StandardCharsets.UTF_8)) {
+			return configure(new ReaderDataScanner(reader), source).readFields();
+		}
+	}
+
+	/**
+	 * Read the data from a file at a given path by memory mapping it. The file is decoded as UTF-8.
+	 * Only the bytes of string values are copied onto the heap; everything else is parsed in place.
+	 * The mapping is held until it is garbage collected, and on some systems the file can't be
+	 * replaced or deleted until then.
+	 *
+	 * @param source A path representing the file. The file must be smaller than 2GB.
+	 * @return A map of Strings to Objects that holds the loaded data from the file.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public Map<String, Object> readMappedFile(Path source) throws IOException {
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed; it is released when it is garbage collected.
+			ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return configure(new ByteBufferDataScanner(mapping), source).readFields();
+		}
+	}
+
+	/**
+	 * Read UTF-8 encoded data from the remaining bytes of a buffer. The buffer's position is not changed.
+	 *
+	 * @param source The buffer to read the data from.
+	 * @return A map of Strings to Objects that holds the loaded data from the buffer.
+	 */
+	public Map<String, Object> read(ByteBuffer source) {
+		try {
+			return configure(new ByteBufferDataScanner(source), null).readFields();
+		}
+		catch (IOException e) {
+			// A ByteBufferDataScanner never does any I/O of its own.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read the data out of a string.
+	 *
+	 * @param rawData A string, most typically the entire contents of a file, that the data is read from.
+	 * @return A map of Strings to Objects that holds the loaded data from the string.
+	 */
+	public Map<String, Object> readString(String rawData) {
+		try {
+			return configure(new CharSequenceDataScanner(rawData), null).readFields();
+		}
+		catch (IOException e) {
+			// A CharSequenceDataScanner never does any I/O of its own.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read the data from a file at a given path lazily.
+	 *
+	 * @param pathString A string representing the file path.
+	 * @return A map of Strings to Objects that parses the value of each field when it is first looked at.
+	 * @throws IOException if an I/O error occurs while reading the file.
+	 */
+	public Map<String, Object> readFileLazily(String pathString) throws IOException {
+		return readFileLazily(FileSystems.getDefault().getPath(pathString));
+	}
+
+	/**
+	 * Read the data from a file at a given path lazily. The file is decoded as UTF-8.
+	 * The whole file is held in memory until the map is no longer used; it is memory mapped
+	 * if it is at least as large as the mapped threshold.
+	 *
+	 * @param source A path representing the file. The file must be smaller than 2GB.
+	 * @return A map of Strings to Objects that parses the value of each field when it is first looked at.
+	 * @throws IOException if an I/O error occurs while reading the file, or it is 2GB or larger.
+	 */
+	public Map<String, Object> readFileLazily(Path source) throws IOException {
+		long size = Files.size(source);
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Can't read " + source + " lazily, since it is " + size + " bytes long. Files read lazily must be smaller than 2GB.");
+		if (size < mappedThreshold)
+			return new LazyDataMap(configure(new ByteBufferDataScanner(ByteBuffer.wrap(Files.readAllBytes(source))), source));
+
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new LazyDataMap(configure(new ByteBufferDataScanner(mapping), source));
+		}
+	}
+
+	/**
+	 * Read UTF-8 encoded data from the remaining bytes of a buffer lazily. The buffer's position
+	 * is not changed, and its contents must not be changed while the map is used.
+	 *
+	 * @param source The buffer to read the data from.
+	 * @return A map of Strings to Objects that parses the value of each field when it is first looked at.
+	 */
+	public Map<String, Object> readLazily(ByteBuffer source) {
+		try {
+			return new LazyDataMap(configure(new ByteBufferDataScanner(source), null));
+		}
+		catch (IOException e) {
+			// A ByteBufferDataScanner never does any I/O of its own.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read the data out of a string lazily.
+	 *
+	 * @param rawData A string, most typically the entire contents of a file, that the data is read from.
+	 * @return A map of Strings to Objects that parses the value of each field when it is first looked at.
+	 */
+	public Map<String, Object> readStringLazily(String rawData) {
+		try {
+			return new LazyDataMap(configure(new CharSequenceDataScanner(rawData), null));
+		}
+		catch (IOException e) {
+			// A CharSequenceDataScanner never does any I/O of its own.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Read the data from a reader. The reader is read to its end but is not closed.
+	 *
+	 * @param source The reader to read the data from.
+	 * @return A map of Strings to Objects that holds the loaded data from the reader.
+	 * @throws IOException if an I/O error occurs while reading from the reader.
+	 */
+	public Map<String, Object> read(Reader source) throws IOException {
+		return configure(new ReaderDataScanner(source), null).readFields();
+	}
+
+	/**
+	 * Give a scanner the settings of this.
+	 *
+	 * @param scanner The scanner.
+	 * @param source The file the scanner reads, or null if it doesn't read a file.
+	 * @return The scanner.
+	 */
+	<S extends DataScanner> S configure(S scanner, Path source) {
+		scanner.setStringPool(stringPool);
+		scanner.setDiagnostics(diagnostics);
+		scanner.setLoggingErrors(logErrors);
+		scanner.setUnescapingStrings(unescapeStrings);
+		if (source != null)
+			scanner.setSource(source.toString());
+		return scanner;
+	}
+
+}
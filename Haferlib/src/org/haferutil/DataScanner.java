@@ -0,0 +1,876 @@
+package org.haferutil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns characters into the values read by DataReader, walking the input exactly once.
+ * Values are built as they are scanned, so no intermediate strings are made for fields,
+ * arrays or maps; the only strings allocated are field names and string values.
+ *
+ * Syntax errors are logged, recorded in a DataDiagnostics, or both. The line and column of an
+ * error are only worked out when it is reported, and messages are only built when they are logged
+ * or asked for, so a scanner that reports nothing does no work for errors at all.
+ *
+ * Subclasses supply the characters.
+ *
+ * @author John Werner
+ *
+ */
+
+abstract class DataScanner {
+
+	/**
+	 * Receives the fields of the input as they are scanned.
+	 */
+	interface FieldHandler {
+
+		/**
+		 * Read the value of a field from the scanner, which is positioned just after the =.
+		 * Syntax errors in the value must be reported to the scanner.
+		 *
+		 * @param fieldName The name of the field.
+		 * @return False if the value had a syntax error, in which case the rest of the field is skipped.
+		 * @throws IOException if an I/O error occurs while reading the input.
+		 */
+		boolean readField(String fieldName) throws IOException;
+
+		/**
+		 * Called after readField once the field has been found to end with a semicolon.
+		 *
+		 * @param fieldName The name of the field.
+		 */
+		void endField(String fieldName);
+
+	}
+
+	/**
+	 * Returned by peek and read when there are no characters left.
+	 */
+	protected static final int END = -1;
+
+	private static final String TRUE = "true";
+	private static final String FALSE = "false";
+
+	// Powers of ten that floats represent exactly, and the largest mantissa floats represent exactly.
+	private static final float[] EXACT_POWERS_OF_TEN = {
+		1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f,
+	};
+	private static final long MAX_EXACT_MANTISSA = 1L << 24;
+
+	private StringBuilder scratch;	// A reusable builder for strings, names and numbers.
+	private StringPool stringPool;	// If not null, field names and strings are interned in this.
+	private DataDiagnostics diagnostics;	// If not null, syntax errors are recorded in this.
+	private boolean logErrors;		// Whether syntax errors are logged.
+	private boolean unescapeStrings;	// Whether backslashes that escape quotes and backslashes are removed from strings.
+	private String source;			// The name of the input, for diagnostics. May be null.
+	private String fieldName;		// The name of the field being read, for diagnostics.
+
+	// Newlines are counted as far as countedTo when errors are reported, so the input is only
+	// counted once however many errors it has.
+	private int origin;				// The offset of the start of the input.
+	private int line;				// The line that countedTo is on.
+	private int lineStart;			// The offset of the start of that line.
+	private int countedTo;			// The offset that newlines have been counted up to.
+
+	// The last number scanned by scanNumber.
+	private boolean numberIsFloat;
+	private int intNumber;
+	private float floatNumber;
+	private long longNumber;		// Set instead of intNumber by wide scans.
+	private double doubleNumber;	// Set instead of floatNumber by wide scans.
+
+	/**
+	 * Constructor.
+	 */
+	protected DataScanner() {
+		scratch = new StringBuilder();
+		logErrors = true;
+		line = 1;
+	}
+
+	/**
+	 * Look at the next character without consuming it.
+	 *
+	 * @return The next character, or END if there are none left.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	protected abstract int peek() throws IOException;
+
+	/**
+	 * Consume the next character.
+	 *
+	 * @return The character that was consumed, or END if there are none left.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	protected abstract int read() throws IOException;
+
+	/**
+	 * Get the offset in the input of the next character.
+	 *
+	 * @return The number of characters, or bytes for byte input, that come before the next character.
+	 */
+	protected abstract int position();
+
+	/**
+	 * Get a character that has already been consumed, to count lines with. Only characters after
+	 * the last offset passed to countLines, and before the next character, are asked for.
+	 *
+	 * @param offset The offset of the character in the input.
+	 * @return The character.
+	 */
+	protected abstract int charAt(int offset);
+
+	/**
+	 * Make a scanner over the same input that starts at a given offset. The input must not
+	 * have been consumed, so only scanners over input that is held in memory support this.
+	 *
+	 * @param position An offset returned by position.
+	 * @return A new scanner.
+	 * @throws UnsupportedOperationException if the input of this can't be scanned again.
+	 */
+	protected DataScanner scannerAt(int position) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can't scan its input again.");
+	}
+
+	/**
+	 * Give a scanner made by scannerAt the settings of this, and let it count lines from the start of the input of this.
+	 *
+	 * @param scanner The scanner.
+	 */
+	protected void copySettingsTo(DataScanner scanner) {
+		scanner.stringPool = stringPool;
+		scanner.diagnostics = diagnostics;
+		scanner.logErrors = logErrors;
+		scanner.unescapeStrings = unescapeStrings;
+		scanner.source = source;
+		scanner.origin = origin;
+		if (countedTo <= scanner.position()) {
+			scanner.line = line;
+			scanner.lineStart = lineStart;
+			scanner.countedTo = countedTo;
+		}
+		else
+			scanner.startLinesAt(origin);
+	}
+
+	/**
+	 * Set the offset that the first line of the input starts at, if it is not 0.
+	 *
+	 * @param offset The offset of the start of the input.
+	 */
+	protected void startLinesAt(int offset) {
+		origin = offset;
+		line = 1;
+		lineStart = offset;
+		countedTo = offset;
+	}
+
+	/**
+	 * Count the newlines up to an offset. Subclasses that discard input must call this with the
+	 * offset of the end of the input they are discarding before they discard it.
+	 *
+	 * @param offset An offset no greater than that of the next character.
+	 */
+	protected void countLines(int offset) {
+		for (int i = countedTo; i < offset; i++) {
+			if (charAt(i) == '\n') {
+				line++;
+				lineStart = i + 1;
+			}
+		}
+		if (offset > countedTo)
+			countedTo = offset;
+	}
+
+	/**
+	 * @return True if syntax errors are logged or recorded.
+	 */
+	boolean isReportingErrors() {
+		return logErrors || diagnostics != null;
+	}
+
+	/**
+	 * Set the collector that syntax errors are recorded in.
+	 *
+	 * @param diagnostics The collector, or null to not record errors.
+	 */
+	void setDiagnostics(DataDiagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+	}
+
+	/**
+	 * Set the name of the field being read, for syntax errors found by a reader other than readFields.
+	 *
+	 * @param fieldName The name of the field, or null if no field is being read.
+	 */
+	void setFieldName(String fieldName) {
+		this.fieldName = fieldName;
+	}
+
+	/**
+	 * Set whether syntax errors are logged. They are logged by default.
+	 *
+	 * @param logErrors True to log errors to the default log.
+	 */
+	void setLoggingErrors(boolean logErrors) {
+		this.logErrors = logErrors;
+	}
+
+	/**
+	 * @return True if backslashes that escape quotes and backslashes are removed from strings.
+	 */
+	boolean isUnescapingStrings() {
+		return unescapeStrings;
+	}
+
+	/**
+	 * Set whether a backslash before a quote or another backslash in a string is removed, as
+	 * DataWriter writes them when it escapes strings. Backslashes are kept as they appear by default.
+	 *
+	 * @param unescapeStrings True to remove escaping backslashes.
+	 */
+	void setUnescapingStrings(boolean unescapeStrings) {
+		this.unescapeStrings = unescapeStrings;
+	}
+
+	/**
+	 * Set the name of the input, which is given with the errors found in it.
+	 *
+	 * @param source The name, such as the path of a file, or null.
+	 */
+	void setSource(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * Set the pool that field names and string values are interned in.
+	 *
+	 * @param pool The pool, or null to not intern strings.
+	 */
+	void setStringPool(StringPool pool) {
+		stringPool = pool;
+	}
+
+	/**
+	 * Read every field in the input.
+	 * Fields that contain syntax errors are reported and skipped.
+	 *
+	 * @return A map of field names to their values.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	public Map<String, Object> readFields() throws IOException {
+		final TreeMap<String, Object> out = new TreeMap<>();
+		readFields(new FieldHandler() {
+			private Object value;	// The value of the field being read.
+
+			@Override
+			public boolean readField(String fieldName) throws IOException {
+				value = readValue();
+				return value != null;
+			}
+
+			@Override
+			public void endField(String fieldName) {
+				out.put(fieldName, value);
+			}
+		});
+		return out;
+	}
+
+	/**
+	 * Read every field in the input, passing each one to a handler to read its value.
+	 * Fields that contain syntax errors are reported and skipped, and reading goes on with the next field.
+	 *
+	 * @param handler The handler to read field values with.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	public void readFields(FieldHandler handler) throws IOException {
+		while (true) {
+			skipWhitespace();
+			if (peek() == END)
+				break;
+
+			// Get the field name.
+			fieldName = readFieldName();
+			if (fieldName == null) {
+				syntaxError("Invalid field name.");
+				skipField();
+				continue;
+			}
+
+			// Make sure the field name is followed by an =.
+			skipWhitespace();
+			if (peek() != '=') {
+				syntaxError("Failed to find = after field name %s.", fieldName);
+				skipField();
+				continue;
+			}
+			read();
+
+			// Parse the value, which must be followed by a semicolon.
+			if (!handler.readField(fieldName)) {
+				skipField();
+				continue;
+			}
+			skipWhitespace();
+			if (peek() != ';') {
+				syntaxError("Expected ; after the value of %s.", fieldName);
+				skipField();
+				continue;
+			}
+			read();
+			handler.endField(fieldName);
+		}
+		fieldName = null;
+	}
+
+	/**
+	 * Read a value. Reports any syntax errors it finds.
+	 *
+	 * @return The value that was read, or null if a syntax error was encountered.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	public Object readValue() throws IOException {
+		skipWhitespace();
+		int c = peek();
+
+		// Strings are between quotes.
+		if (c == '"')
+			return readString();
+		// Arrays are between { and }.
+		if (c == '{')
+			return readArray();
+		// Maps are between < and >.
+		if (c == '<')
+			return readMap();
+		// Numbers start with a digit or a minus sign.
+		if (c == '-' || isDigit(c))
+			return readNumber();
+		// The only other values are booleans.
+		if (isLetter(c))
+			return readBoolean();
+
+		if (c == END)
+			syntaxError("Expected a value before the end of the input.");
+		else
+			syntaxError("Unrecognized value starting with '%s'.", (char)c);
+		return null;
+	}
+
+	/**
+	 * Skip a value without building it. Only its extent is checked: strings must be closed and
+	 * arrays and maps must have as many closing brackets as opening ones. The rest of the value
+	 * is checked when it is read.
+	 *
+	 * @return True if the whole value was skipped, or false if a syntax error was encountered.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	boolean skipValue() throws IOException {
+		skipWhitespace();
+		int c = peek();
+
+		// Skip strings to their closing quote.
+		if (c == '"') {
+			read();
+			if (!skipStringBody()) {
+				syntaxError("Unclosed string.");
+				return false;
+			}
+			return true;
+		}
+		// Skip arrays and maps to their matching bracket.
+		if (c == '{' || c == '<') {
+			int depth = 0;
+			do {
+				c = read();
+				if (c == '{' || c == '<')
+					depth++;
+				else if (c == '}' || c == '>')
+					depth--;
+				else if (c == '"' && !skipStringBody())
+					c = END;
+			} while (depth > 0 && c != END);
+			if (c == END) {
+				syntaxError("Unclosed array or map.");
+				return false;
+			}
+			return true;
+		}
+		// Skip numbers and booleans to the first character that can't be in them.
+		if (c == '-' || isWordChar(c)) {
+			while (!endsNumber(peek()))
+				read();
+			return true;
+		}
+
+		if (c == END)
+			syntaxError("Expected a value before the end of the input.");
+		else
+			syntaxError("Unrecognized value starting with '%s'.", (char)c);
+		return false;
+	}
+
+	/**
+	 * Skip whitespace, then consume a character if it is next.
+	 *
+	 * @param c The character to look for.
+	 * @return True if the character was next and was consumed.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	boolean consume(int c) throws IOException {
+		skipWhitespace();
+		if (peek() != c)
+			return false;
+		read();
+		return true;
+	}
+
+	/**
+	 * Skip whitespace, then look at the next character without consuming it.
+	 *
+	 * @return The next character that isn't whitespace, or END if there are none left.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	int peekValue() throws IOException {
+		skipWhitespace();
+		return peek();
+	}
+
+	/**
+	 * Skip whitespace. Whitespace is any character that String.trim would remove.
+	 *
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	protected void skipWhitespace() throws IOException {
+		int c = peek();
+		while (c != END && c <= ' ') {
+			read();
+			c = peek();
+		}
+	}
+
+	/**
+	 * Skip past the semicolon that ends the current field. Semicolons in strings are ignored.
+	 *
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	protected void skipField() throws IOException {
+		int c = read();
+		while (c != END && c != ';') {
+			if (c == '"')
+				skipStringBody();
+			c = read();
+		}
+	}
+
+	/**
+	 * Report a syntax error at the next character.
+	 *
+	 * @param message A description of the error.
+	 */
+	protected void syntaxError(String message) {
+		syntaxError(message, null);
+	}
+
+	/**
+	 * Report a syntax error at the next character. The message is only built if it is logged or asked for.
+	 *
+	 * @param format A description of the error, with %s where the detail goes.
+	 * @param detail What goes into the description. A CharSequence is copied, so a builder may be reused afterwards.
+	 */
+	protected void syntaxError(String format, Object detail) {
+		if (!isReportingErrors())
+			return;
+		if (detail instanceof CharSequence)
+			detail = detail.toString();
+		int offset = position();
+		countLines(offset);
+		DataDiagnostics.Diagnostic diagnostic = new DataDiagnostics.Diagnostic(source, fieldName,
+				line, offset - lineStart + 1, offset, format, detail);
+		if (diagnostics != null)
+			diagnostics.add(diagnostic);
+		if (logErrors)
+			Log.getDefaultLog().error("SYNTAX ERROR: " + diagnostic);
+	}
+
+	/**
+	 * Read a field name, which is a letter followed by any number of letters, digits and underscores.
+	 *
+	 * @return The field name, or null if the input does not start with a field name.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	String readFieldName() throws IOException {
+		if (!isLetter(peek()))
+			return null;
+		scratch.setLength(0);
+		while (isWordChar(peek()))
+			scratch.append((char)read());
+		return intern(scratch.toString());
+	}
+
+	/**
+	 * Read a string value. The next character must be the opening quote.
+	 *
+	 * @return The contents of the string, or null if it is never closed.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	String readString() throws IOException {
+		read();
+		String out = readStringBody();
+		if (out == null) {
+			syntaxError("Unclosed string.");
+			return null;
+		}
+		return intern(out);
+	}
+
+	/**
+	 * Intern a string in the string pool, if there is one.
+	 *
+	 * @param string The string to intern.
+	 * @return The string from the pool, or the given string.
+	 */
+	private String intern(String string) {
+		return (stringPool != null) ? stringPool.intern(string) : string;
+	}
+
+	/**
+	 * Read the rest of a string whose opening quote has already been read, including the
+	 * closing quote. A backslash before a quote or another backslash escapes it. The escaping
+	 * backslash is only removed if strings are unescaped; any other backslash is always kept as it
+	 * appears in the input.
+	 *
+	 * @return The contents of the string, or null if the input ends before the string is closed.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	protected String readStringBody() throws IOException {
+		scratch.setLength(0);
+		int c = read();
+		while (c != '"') {
+			if (c == END)
+				return null;
+			if (c == '\\') {
+				c = read();
+				if (c == END)
+					continue;
+				if (!unescapeStrings || (c != '"' && c != '\\'))
+					scratch.append('\\');
+			}
+			scratch.append((char)c);
+			c = read();
+		}
+		return scratch.toString();
+	}
+
+	/**
+	 * Remove the backslashes that escape quotes and backslashes in the contents of a string.
+	 *
+	 * @param string The contents of a string as they appear in the input.
+	 * @return The contents of the string with escapes removed.
+	 */
+	static String unescape(String string) {
+		StringBuilder out = new StringBuilder(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '\\' && i + 1 < string.length()) {
+				char next = string.charAt(i + 1);
+				if (next == '"' || next == '\\') {
+					c = next;
+					i++;
+				}
+			}
+			out.append(c);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Skip the rest of a string whose opening quote has already been read.
+	 *
+	 * @return False if the input ends before the string is closed.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private boolean skipStringBody() throws IOException {
+		int c = read();
+		while (c != END && c != '"') {
+			if (c == '\\')
+				read();
+			c = read();
+		}
+		return c != END;
+	}
+
+	/**
+	 * Read an array. Arrays contain values separated by commas.
+	 *
+	 * @return The array, or null if it or any of its elements are invalid.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private Object[] readArray() throws IOException {
+		read();
+		ArrayList<Object> arrayBuilder = new ArrayList<>();
+		while (true) {
+			// The last element doesn't need a comma after it.
+			skipWhitespace();
+			if (peek() == '}') {
+				read();
+				return arrayBuilder.toArray();
+			}
+
+			// If we fail to parse an element, the array fails to be made as well.
+			Object element = readValue();
+			if (element == null)
+				return null;
+			arrayBuilder.add(element);
+
+			skipWhitespace();
+			int c = peek();
+			if (c == ',')
+				read();
+			else if (c != '}') {
+				syntaxError("Expected , or } after an array element.");
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Read a map. Maps contain key-value pairs of the format key : value, separated by commas.
+	 *
+	 * @return The map, or null if it or any of its pairs are invalid.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private Map<Object, Object> readMap() throws IOException {
+		read();
+		Map<Object, Object> map = new LinkedHashMap<>();
+		while (true) {
+			// The last pair doesn't need a comma after it.
+			skipWhitespace();
+			if (peek() == '>') {
+				read();
+				return map;
+			}
+
+			// If we fail to parse the key or the value, the map fails to be made as well.
+			Object key = readValue();
+			if (key == null)
+				return null;
+			skipWhitespace();
+			if (peek() != ':') {
+				syntaxError("Failed to find : after a map key.");
+				return null;
+			}
+			read();
+			Object value = readValue();
+			if (value == null)
+				return null;
+			map.put(key, value);
+
+			skipWhitespace();
+			int c = peek();
+			if (c == ',')
+				read();
+			else if (c != '>') {
+				syntaxError("Expected , or > after a map pair.");
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Read an integer or a float. Integers match -?\d+ and floats match -?\d+\.\d+.
+	 *
+	 * @return An Integer or a Float, or null if the number is invalid.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	private Object readNumber() throws IOException {
+		if (!scanNumber())
+			return null;
+		if (numberIsFloat)
+			return floatNumber;
+		return intNumber;
+	}
+
+	/**
+	 * Scan an integer or a float without boxing it. The next character must be a digit or a minus sign.
+	 * The result is available from numberIsFloat, intNumber and floatNumber.
+	 *
+	 * @return False if the number is invalid.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	boolean scanNumber() throws IOException {
+		return scanNumber(false);
+	}
+
+	/**
+	 * Scan an integer or a float without boxing it. The next character must be a digit or a minus sign.
+	 * If the scan is wide, integers may have the range of a long, floats are parsed with the precision
+	 * of a double, and the result is available from numberIsFloat, longNumber and doubleNumber.
+	 *
+	 * @param wide True to scan longs and doubles instead of ints and floats.
+	 * @return False if the number is invalid.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	boolean scanNumber(boolean wide) throws IOException {
+		scratch.setLength(0);
+		boolean negative = (peek() == '-');
+		if (negative)
+			scratch.append((char)read());
+
+		// Read the whole part, accumulating it as we go so integers never need to be re-parsed.
+		// Accumulation stops once the value is out of the range of an int.
+		long value = 0;
+		int numDigits = 0;
+		while (isDigit(peek())) {
+			int c = read();
+			scratch.append((char)c);
+			if (value <= Integer.MAX_VALUE)
+				value = value * 10 + (c - '0');
+			numDigits++;
+		}
+		if (numDigits == 0) {
+			syntaxError("Expected a digit after -.");
+			return false;
+		}
+
+		// If there is a fraction, this is a float. The fraction digits keep accumulating into
+		// the value, which makes it the mantissa of the float.
+		if (peek() == '.') {
+			scratch.append((char)read());
+			numDigits = 0;
+			while (isDigit(peek())) {
+				int c = read();
+				scratch.append((char)c);
+				if (value <= Integer.MAX_VALUE)
+					value = value * 10 + (c - '0');
+				numDigits++;
+			}
+			if (numDigits == 0) {
+				syntaxError("Expected a digit after the . in %s.", scratch);
+				return false;
+			}
+			if (!endsNumber(peek())) {
+				syntaxError("Unexpected character after %s.", scratch);
+				return false;
+			}
+			numberIsFloat = true;
+			if (wide) {
+				doubleNumber = Double.parseDouble(scratch.toString());
+				return true;
+			}
+
+			// If the mantissa and the power of ten are both exact floats, one float division is
+			// correctly rounded, so it gives the same result as Float.parseFloat.
+			if (value <= MAX_EXACT_MANTISSA && numDigits < EXACT_POWERS_OF_TEN.length) {
+				float f = value / EXACT_POWERS_OF_TEN[numDigits];
+				floatNumber = negative ? -f : f;
+			}
+			else
+				floatNumber = Float.parseFloat(scratch.toString());
+			return true;
+		}
+
+		// Otherwise, this is an integer.
+		if (!endsNumber(peek())) {
+			syntaxError("Unexpected character after %s.", scratch);
+			return false;
+		}
+		if (wide) {
+			try {
+				longNumber = Long.parseLong(scratch.toString());
+			}
+			catch (NumberFormatException e) {
+				syntaxError("Integer out of range: %s", scratch);
+				return false;
+			}
+			numberIsFloat = false;
+			return true;
+		}
+		if (negative)
+			value = -value;
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			syntaxError("Integer out of range: %s", scratch);
+			return false;
+		}
+		numberIsFloat = false;
+		intNumber = (int)value;
+		return true;
+	}
+
+	/**
+	 * @return True if the last number scanned was a float.
+	 */
+	boolean numberIsFloat() {
+		return numberIsFloat;
+	}
+
+	/**
+	 * @return The last number scanned, if it was an integer.
+	 */
+	int intNumber() {
+		return intNumber;
+	}
+
+	/**
+	 * @return The last number scanned, as a float.
+	 */
+	float floatNumber() {
+		return numberIsFloat ? floatNumber : intNumber;
+	}
+
+	/**
+	 * @return The last number scanned by a wide scan, if it was an integer.
+	 */
+	long longNumber() {
+		return longNumber;
+	}
+
+	/**
+	 * @return The last number scanned by a wide scan, as a double.
+	 */
+	double doubleNumber() {
+		return numberIsFloat ? doubleNumber : longNumber;
+	}
+
+	/**
+	 * Read a boolean. The next character must be a letter.
+	 *
+	 * @return A Boolean, or null if the input is a word other than true or false.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	Boolean readBoolean() throws IOException {
+		scratch.setLength(0);
+		while (isWordChar(peek()))
+			scratch.append((char)read());
+		if (TRUE.contentEquals(scratch))
+			return Boolean.TRUE;
+		if (FALSE.contentEquals(scratch))
+			return Boolean.FALSE;
+		syntaxError("Unrecognized value: %s", scratch);
+		return null;
+	}
+
+	/**
+	 * @return True if c may directly follow a number.
+	 */
+	private static boolean endsNumber(int c) {
+		return c == END || c <= ' ' || c == ',' || c == ';' || c == ':' || c == '}' || c == '>';
+	}
+
+	static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isWordChar(int c) {
+		return isLetter(c) || isDigit(c) || c == '_';
+	}
+
+}
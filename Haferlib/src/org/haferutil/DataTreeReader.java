@@ -0,0 +1,165 @@
+package org.haferutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads every file in a FileTree concurrently on a fork-join pool.
+ * All of the worker threads share one DataReader.
+ *
+ * @author John Werner
+ *
+ */
+
+public class DataTreeReader implements AutoCloseable {
+
+	/**
+	 * Reads a range of files, splitting it in half until the range is small enough to read on one thread.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	private final class ReadTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final int FILES_PER_TASK = 4;
+
+		private final File[] files;
+		private final Map<String, Object>[] results;
+		private final IOException[] failures;
+		private final int start;
+		private final int end;
+
+		private ReadTask(File[] files, Map<String, Object>[] results, IOException[] failures, int start, int end) {
+			this.files = files;
+			this.results = results;
+			this.failures = failures;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= FILES_PER_TASK) {
+				for (int i = start; i < end; i++) {
+					try {
+						results[i] = reader.readFile(files[i].toPath());
+					}
+					catch (IOException e) {
+						failures[i] = e;
+					}
+				}
+			}
+			else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new ReadTask(files, results, failures, start, middle),
+						new ReadTask(files, results, failures, middle, end));
+			}
+		}
+
+	}
+
+	private final ForkJoinPool pool;
+	private final boolean ownsPool;				// Whether the pool was made by, and should be shut down by, this.
+	private final DataReader reader;
+
+	/**
+	 * Make a DataTreeReader that reads on as many threads as there are processors.
+	 */
+	public DataTreeReader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Make a DataTreeReader that reads on a given number of threads.
+	 *
+	 * @param parallelism The number of threads to read files on.
+	 */
+	public DataTreeReader(int parallelism) {
+		this(new ForkJoinPool(parallelism), true);
+	}
+
+	/**
+	 * Make a DataTreeReader that reads on an existing pool. The pool is not shut down by close.
+	 *
+	 * @param pool The pool to read files on.
+	 */
+	public DataTreeReader(ForkJoinPool pool) {
+		this(pool, false);
+	}
+
+	private DataTreeReader(ForkJoinPool pool, boolean ownsPool) {
+		this.pool = pool;
+		this.ownsPool = ownsPool;
+		reader = new DataReader();
+	}
+
+	/**
+	 * Get the reader that files are read with. It may be configured before reading a tree.
+	 *
+	 * @return The reader.
+	 */
+	public DataReader getReader() {
+		return reader;
+	}
+
+	/**
+	 * Read every file in a tree. Blocks until all of them have been read.
+	 *
+	 * @param tree The tree of files to read.
+	 * @return A map with the same root path as the tree, holding the data of each file at the
+	 *         key of its directory in the tree followed by its name.
+	 * @throws IOException if any of the files can't be read. Any other failures are suppressed by it.
+	 */
+	public PathMap<Map<String, Object>> readTree(FileTree tree) throws IOException {
+		// Gather all the files in the tree.
+		ArrayList<File> fileList = new ArrayList<>(tree.getNumFiles());
+		for (File[] directory : tree) {
+			if (directory != null) {
+				for (File file : directory)
+					fileList.add(file);
+			}
+		}
+		File[] files = fileList.toArray(new File[fileList.size()]);
+
+		// Read them all.
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Map<String, Object>[] results = new Map[files.length];
+		IOException[] failures = new IOException[files.length];
+		pool.invoke(new ReadTask(files, results, failures, 0, files.length));
+
+		// Report any failures.
+		IOException failure = null;
+		for (int i = 0; i < failures.length; i++) {
+			if (failures[i] == null)
+				continue;
+			if (failure == null)
+				failure = failures[i];
+			else
+				failure.addSuppressed(failures[i]);
+		}
+		if (failure != null)
+			throw failure;
+
+		// Put the results in a map shaped like the tree.
+		PathMap<Map<String, Object>> out = new PathMap<>(tree.getRootPath(), tree.getSeparator());
+		for (int i = 0; i < files.length; i++)
+			out.put(FileTree.keyFor(files[i].getParentFile()) + files[i].getName(), results[i]);
+		return out;
+	}
+
+	/**
+	 * Shut down the pool if this made it.
+	 */
+	@Override
+	public void close() {
+		if (ownsPool)
+			pool.shutdown();
+	}
+
+}
@@ -2,37 +2,85 @@ package org.haferutil;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import org.hafermath.expression.Expression;
 
+/**
+ * Writes data structures in the text format that DataReader reads.
+ * Values are appended straight into a buffer that is passed to the output when it fills up,
+ * so no intermediate strings are built for nested arrays and maps.
+ * Quotes and backslashes in strings may be escaped with a backslash, so that strings with quotes
+ * in them can be written; they are only read back as written by a DataReader that unescapes strings.
+ *
+ * @author John Werner
+ *
+ */
+
 public class DataWriter implements AutoCloseable {
-	
-	private PrintStream printStream;
-	private StringBuilder stringBuilder;	// A reusable string builder.
-	
+
+	/**
+	 * When a DataWriter passes what it has written on to its output and flushes the output.
+	 * Whatever the policy, the output is always flushed when it is closed or flush is called.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	public enum FlushPolicy {
+		/** Flush only when the buffer is full. */
+		MANUAL,
+		/** Flush at the end of every call to write. */
+		AFTER_WRITE,
+		/** Flush after every field that is written. */
+		AFTER_FIELD
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private Writer writer;				// The output.
+	private final char[] buffer;		// Characters that have been written but not yet passed to the output.
+	private int count;					// The number of characters in the buffer.
+	private FlushPolicy flushPolicy;
+	private boolean escapeStrings;		// Whether quotes and backslashes in strings are escaped.
+
 	/**
 	 * Constructor.
 	 */
 	public DataWriter() {
-		stringBuilder = new StringBuilder();
+		buffer = new char[BUFFER_SIZE];
+		flushPolicy = FlushPolicy.AFTER_WRITE;
 	}
-	
+
 	/**
 	 * Make a DataWriter that will write to the given stream.
-	 * 
+	 *
 	 * @param stream The stream to write to.
 	 */
 	public DataWriter(OutputStream stream) {
 		this();
 		setOutputToStream(stream);
 	}
-	
+
+	/**
+	 * Make a DataWriter that will write to the given writer.
+	 *
+	 * @param writer The writer to write to.
+	 */
+	public DataWriter(Writer writer) {
+		this();
+		setOutputToWriter(writer);
+	}
+
 	/**
 	 * Make a DataWriter that will write to the given file.
-	 * 
+	 *
 	 * @param file The file to write to.
 	 * @throws FileNotFoundException If the given file is not found.
 	 */
@@ -40,107 +88,314 @@ public class DataWriter implements AutoCloseable {
 		this();
 		setOutputToFile(file);
 	}
-	
+
 	/**
-	 * Set the output to an OutputStream.
-	 * 
+	 * Set the output to an OutputStream. Characters are encoded as UTF-8.
+	 *
 	 * @param stream The stream to write to.
 	 */
 	public void setOutputToStream(OutputStream stream) {
-		close();
-		printStream = new PrintStream(stream);
+		setOutputToWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Set the output to a Writer.
+	 *
+	 * @param writer The writer to write to.
+	 */
+	public void setOutputToWriter(Writer writer) {
+		closeQuietly();
+		this.writer = writer;
 	}
-	
+
 	/**
 	 * Set the output to some file.
-	 * 
+	 *
 	 * @param file The file to write to.
 	 * @throws FileNotFoundException If the given file is not found.
 	 */
 	public void setOutputToFile(File file) throws FileNotFoundException {
-		close();
-		printStream = new PrintStream(file);
+		closeQuietly();
+		writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
 	}
-	
+
 	/**
-	 * Close the current output.
+	 * Get the policy that decides when written data is flushed to the output.
+	 *
+	 * @return The flush policy.
 	 */
-	public void close() {
-		if (printStream != null) {
-			printStream.close();
-			printStream = null;
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * Set the policy that decides when written data is flushed to the output.
+	 * The default policy is AFTER_WRITE.
+	 *
+	 * @param policy The new flush policy.
+	 */
+	public void setFlushPolicy(FlushPolicy policy) {
+		if (policy == null)
+			throw new IllegalArgumentException("The policy parameter must not be null.");
+		flushPolicy = policy;
+	}
+
+	/**
+	 * @return True if quotes and backslashes in strings are escaped with a backslash.
+	 */
+	public boolean isEscapingStrings() {
+		return escapeStrings;
+	}
+
+	/**
+	 * Set whether quotes and backslashes in strings and expressions are escaped with a backslash.
+	 * This is off by default, so the output reads the same as it always has. Files written with
+	 * it on must be read by a DataReader that unescapes strings.
+	 *
+	 * @param escapeStrings True to escape strings.
+	 */
+	public void setEscapingStrings(boolean escapeStrings) {
+		this.escapeStrings = escapeStrings;
+	}
+
+	/**
+	 * Pass everything that has been written on to the output and flush it.
+	 *
+	 * @throws IOException If an I/O error occurs while flushing.
+	 */
+	public void flush() throws IOException {
+		if (writer == null)
+			throw new IllegalStateException("The DataWriter has no output.");
+		drain();
+		writer.flush();
+	}
+
+	/**
+	 * Flush and close the current output.
+	 *
+	 * @throws IOException If the output fails to flush or close.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (writer != null) {
+			Writer out = writer;
+			try {
+				drain();
+			}
+			finally {
+				writer = null;
+				count = 0;
+				out.close();
+			}
 		}
 	}
-	
+
 	/**
-	 * Format an object for writing.
-	 * 
+	 * Format an object for writing, escaping strings if this does.
+	 *
 	 * @param data The object to format.
 	 * @return A string representation of the object that will be written.
 	 */
 	public String format(Object data) {
-		// Format arrays between curly braces.
+		StringWriter out = new StringWriter();
+		DataWriter formatter = new DataWriter(out);
+		formatter.escapeStrings = escapeStrings;
+		try {
+			formatter.writeValue(data);
+			formatter.drain();
+		}
+		catch (IOException e) {
+			// A StringWriter never throws.
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Writes a map to the output in the order of the map's iterator.
+	 *
+	 * @param data The map to write.
+	 * @throws IOException If an I/O error occurs while writing.
+	 */
+	public void write(Map<String, Object> data) throws IOException {
+		if (writer == null)
+			throw new IllegalStateException("The DataWriter has no output.");
+		for (Map.Entry<String, Object> entry : data.entrySet()) {
+			append(entry.getKey());
+			append(" = ");
+			writeValue(entry.getValue());
+			append(";\n");
+			if (flushPolicy == FlushPolicy.AFTER_FIELD)
+				flush();
+		}
+		if (flushPolicy == FlushPolicy.AFTER_WRITE)
+			flush();
+	}
+
+	/**
+	 * Append a value to the buffer.
+	 *
+	 * @param data The value to append.
+	 * @throws IOException If an I/O error occurs while passing a full buffer to the output.
+	 */
+	private void writeValue(Object data) throws IOException {
+		// Write arrays between curly braces.
 		if (data instanceof Object[]) {
-			stringBuilder.append("{ ");
+			append("{ ");
 			Object[] array = (Object[])data;
 			for (int i = 0; i < array.length; i++) {
-				stringBuilder.append(format(array[i]));
-				stringBuilder.append(", ");
+				writeValue(array[i]);
+				append(", ");
 			}
-			stringBuilder.append('}');
-			String out = stringBuilder.toString();
-			stringBuilder.delete(0, stringBuilder.length());
-			return out;
+			append('}');
 		}
-		// Format strings between quotes.
+		// Write strings between quotes.
 		else if (data instanceof String) {
-			stringBuilder.append('\"');
-			stringBuilder.append(data.toString());
-			stringBuilder.append('\"');
-			String out = stringBuilder.toString();
-			stringBuilder.delete(0, stringBuilder.length());
-			return out;
-		}
-		// Format maps between < and >.
+			append('\"');
+			appendString((String)data);
+			append('\"');
+		}
+		// Write maps between < and >.
 		else if (data instanceof Map<?, ?>) {
-			stringBuilder.append("< ");
+			append("< ");
 			Map<?, ?> map = (Map<?, ?>)data;
 			for (Map.Entry<?, ?> entry : map.entrySet()) {
-				stringBuilder.append(format(entry.getKey()));
-				stringBuilder.append(" : ");
-				stringBuilder.append(format(entry.getValue()));
-				stringBuilder.append(",\n");
+				writeValue(entry.getKey());
+				append(" : ");
+				writeValue(entry.getValue());
+				append(",\n");
 			}
-			stringBuilder.append('>');
-			String out = stringBuilder.toString();
-			stringBuilder.delete(0, stringBuilder.length());
-			return out;
+			append('>');
 		}
-		// Format expressions between "#exp and ".
+		// Write expressions between "#exp and ".
 		else if (data instanceof Expression) {
-			stringBuilder.append("\"#exp");
-			stringBuilder.append(data.toString());
-			stringBuilder.append('\"');
-			String out = stringBuilder.toString();
-			stringBuilder.delete(0, stringBuilder.length());
-			return out;
+			append("\"#exp");
+			appendString(data.toString());
+			append('\"');
 		}
+		// Write integers digit by digit.
+		else if (data instanceof Integer)
+			appendInt((Integer)data);
 		// Otherwise, just use toString.
 		else
-			return data.toString();
+			append(data.toString());
+	}
+
+	/**
+	 * Append a string to the buffer, putting a backslash before each quote and backslash in it
+	 * if strings are escaped.
+	 *
+	 * @param string The string to append.
+	 * @throws IOException If an I/O error occurs while passing a full buffer to the output.
+	 */
+	private void appendString(String string) throws IOException {
+		if (!escapeStrings) {
+			append(string, 0, string.length());
+			return;
+		}
+		int start = 0;
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '\"' || c == '\\') {
+				append(string, start, i);
+				append('\\');
+				start = i;
+			}
+		}
+		append(string, start, string.length());
 	}
-	
+
 	/**
-	 * Writes a map to the output in the order of the map's iterator.
-	 * 
-	 * @param data The map to write.
+	 * Append the decimal digits of an int to the buffer.
+	 *
+	 * @param value The int to append.
+	 * @throws IOException If an I/O error occurs while passing a full buffer to the output.
 	 */
-	public void write(Map<String, Object> data) {
-		for (Map.Entry<String, Object> entry : data.entrySet()) {
-			printStream.append(entry.getKey());
-			printStream.append(" = ");
-			printStream.append(format(entry.getValue()));
-			printStream.append(";\n");
+	private void appendInt(int value) throws IOException {
+		// The digits of MIN_VALUE can't be found from its negation.
+		if (value == Integer.MIN_VALUE) {
+			append(Integer.toString(value));
+			return;
+		}
+		// An int has at most 10 digits and a sign.
+		if (buffer.length - count < 11)
+			drain();
+		if (value < 0) {
+			buffer[count++] = '-';
+			value = -value;
+		}
+		int numDigits = 1;
+		for (int rest = value / 10; rest != 0; rest /= 10)
+			numDigits++;
+		count += numDigits;
+		for (int i = count - 1; i >= count - numDigits; i--) {
+			buffer[i] = (char)('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+	/**
+	 * Append a character to the buffer.
+	 *
+	 * @param c The character to append.
+	 * @throws IOException If an I/O error occurs while passing a full buffer to the output.
+	 */
+	private void append(char c) throws IOException {
+		if (count == buffer.length)
+			drain();
+		buffer[count++] = c;
+	}
+
+	/**
+	 * Append a string to the buffer.
+	 *
+	 * @param string The string to append.
+	 * @throws IOException If an I/O error occurs while passing a full buffer to the output.
+	 */
+	private void append(String string) throws IOException {
+		append(string, 0, string.length());
+	}
+
+	/**
+	 * Append part of a string to the buffer.
+	 *
+	 * @param string The string to append part of.
+	 * @param start The index of the first character to append.
+	 * @param end The index after the last character to append.
+	 * @throws IOException If an I/O error occurs while passing a full buffer to the output.
+	 */
+	private void append(String string, int start, int end) throws IOException {
+		while (start < end) {
+			if (count == buffer.length)
+				drain();
+			int length = Math.min(end - start, buffer.length - count);
+			string.getChars(start, start + length, buffer, count);
+			count += length;
+			start += length;
+		}
+	}
+
+	/**
+	 * Pass the contents of the buffer on to the output and empty the buffer.
+	 *
+	 * @throws IOException If an I/O error occurs while writing to the output.
+	 */
+	private void drain() throws IOException {
+		if (count > 0) {
+			writer.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	/**
+	 * Close the current output, logging any failure instead of throwing it.
+	 */
+	private void closeQuietly() {
+		try {
+			close();
+		}
+		catch (IOException e) {
+			Log.getDefaultLog().error("Failed to close the output of a DataWriter: " + e.getMessage());
 		}
 	}
 
@@ -2,16 +2,34 @@ package org.haferutil;
 
 import java.util.Iterator;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 
 /**
  * An NAryTree that is used to load a directory of files. The files can be filtered by extension.
- * This tree is immutable except by setRootPath. Attempts to call put/remove will result in an
- * UnsupportedOperationException being thrown. This is to ensure this tree accurately reflects the
- * file system at the time it was built.
+ * This tree is immutable except by setRootPath and by a FileTreeWatcher watching it. Attempts to
+ * call put/remove will result in an UnsupportedOperationException being thrown. This is to ensure
+ * this tree accurately reflects the file system.
  * 
- * Nodes of this tree represent directories.
+ * Nodes of this tree represent directories. Keys are absolute paths that use the separator of
+ * the file system and end with it.
+ * 
+ * The attributes of each file are recorded when its directory is listed, so that callers can
+ * skip files whose size and modification time have not changed.
  * 
  * This class is not a subtype of NAryTree.
  * 
@@ -38,17 +56,159 @@ public class FileTree extends PathMap<File[]> {
 		public boolean accept(File pathname) {
 			if (!pathname.isFile())
 				return false;
+			return accept(pathname.getName());
+		}
+
+		public boolean accept(String name) {
 			for (int i = 0; i < extensions.length; i++)
-				if (pathname.getName().endsWith(extensions[i]))
+				if (name.endsWith(extensions[i]))
 					return true;
 			return false;
 		}
 
 	}
 
+	/**
+	 * The accepted files of one directory and their attributes.
+	 * 
+	 * @author John
+	 *
+	 */
+	private static class Listing {
+
+		private final File directory;
+		private final ArrayList<File> files;
+		private final ArrayList<BasicFileAttributes> attributes;
+
+		private Listing(File directory) {
+			this.directory = directory;
+			files = new ArrayList<File>();
+			attributes = new ArrayList<BasicFileAttributes>();
+		}
+
+	}
+
+	/**
+	 * Lists directories while walking the file system. Each directory is listed once, and the
+	 * attributes that come with each entry are used instead of asking the file system again.
+	 * Entries that can't be read are skipped.
+	 * 
+	 * @author John
+	 *
+	 */
+	private static class Lister extends SimpleFileVisitor<Path> {
+
+		private final FileExtensionFilter filter;
+		private final ArrayDeque<Listing> open;			// The directories that are being walked.
+		private final ArrayList<Listing> listings;		// The directories that have been walked.
+		private final ArrayList<Path> unwalked;			// Directories past the depth of the walk.
+
+		private Lister(FileExtensionFilter filter) {
+			this.filter = filter;
+			open = new ArrayDeque<Listing>();
+			listings = new ArrayList<Listing>();
+			unwalked = new ArrayList<Path>();
+		}
+
+		/**
+		 * Walk from a directory.
+		 * 
+		 * @param start The directory to start at.
+		 * @param maxDepth 1 to list only the start directory, or Integer.MAX_VALUE to list everything below it.
+		 */
+		private void walk(Path start, int maxDepth) {
+			try {
+				Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class), maxDepth, this);
+			}
+			catch (IOException e) {
+				// The visitor never throws.
+			}
+		}
+
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+			open.push(new Listing(dir.toFile()));
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+			if (attrs.isDirectory())
+				unwalked.add(file);
+			else if (filter.accept(file.getFileName().toString())) {
+				// Links to files are listed like the files they link to. Links to directories aren't followed.
+				if (attrs.isSymbolicLink()) {
+					try {
+						attrs = Files.readAttributes(file, BasicFileAttributes.class);
+					}
+					catch (IOException e) {
+						// The link is broken.
+						return FileVisitResult.CONTINUE;
+					}
+				}
+				if (attrs.isRegularFile()) {
+					Listing listing = open.peek();
+					listing.files.add(file.toFile());
+					listing.attributes.add(attrs);
+				}
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFileFailed(Path file, IOException exc) {
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+			listings.add(open.pop());
+			return FileVisitResult.CONTINUE;
+		}
+
+	}
+
+	/**
+	 * Lists a directory, then forks a task for each of its subdirectories.
+	 * 
+	 * @author John
+	 *
+	 */
+	private static class ListTask extends RecursiveTask<List<Listing>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileExtensionFilter filter;
+		private final Path directory;
+
+		private ListTask(FileExtensionFilter filter, Path directory) {
+			this.filter = filter;
+			this.directory = directory;
+		}
+
+		@Override
+		protected List<Listing> compute() {
+			Lister lister = new Lister(filter);
+			lister.walk(directory, 1);
+
+			ArrayList<ListTask> subtasks = new ArrayList<ListTask>(lister.unwalked.size());
+			for (Path subdirectory : lister.unwalked)
+				subtasks.add(new ListTask(filter, subdirectory));
+			invokeAll(subtasks);
+
+			List<Listing> out = lister.listings;
+			for (ListTask subtask : subtasks)
+				out.addAll(subtask.join());
+			return out;
+		}
+
+	}
+
 	// Instance fields.
-	private FileExtensionFilter fileFilter;	// Determines which files are accepted by this tree.
-	private int numFiles;					// The number of files in this tree (not counting directories).
+	private FileExtensionFilter fileFilter;					// Determines which files are accepted by this tree.
+	private ForkJoinPool pool;								// If not null, directories are listed in parallel on this.
+	private int numFiles;									// The number of files in this tree (not counting directories).
+	private HashMap<File, BasicFileAttributes> attributes;	// The attributes of each file, from when its directory was last listed.
 
 	/**
 	 * Create a file tree out of the given file path that contains all the files there.
@@ -78,8 +238,23 @@ public class FileTree extends PathMap<File[]> {
 	 * @param filterExtensions The extensions to filter files by.
 	 */
 	public FileTree(String filePath, String[] filterExtensions) {
-		super();
+		this(filePath, filterExtensions, null);
+	}
+
+	/**
+	 * Create a file tree out of the given file path that contains all of the files there
+	 * that have names ending in one of the elements of filterExtensions. Directories are listed
+	 * in parallel on the given pool.
+	 * 
+	 * @param filePath The path of the directory to make this tree from.
+	 * @param filterExtensions The extensions to filter files by.
+	 * @param pool The pool to list directories on, or null to list them on the calling thread.
+	 */
+	public FileTree(String filePath, String[] filterExtensions, ForkJoinPool pool) {
+		super(File.separatorChar);
 		fileFilter = new FileExtensionFilter(filterExtensions);
+		this.pool = pool;
+		attributes = new HashMap<File, BasicFileAttributes>();
 		setRootPath(filePath);
 	}
 	
@@ -102,7 +277,19 @@ public class FileTree extends PathMap<File[]> {
 	}
 
 	/**
-	 * Set the root path of this file tree and build it.
+	 * Get the attributes a file had when its directory was last listed. Comparing the size and
+	 * last modified time of these to those of an earlier listing shows whether the file has changed.
+	 * 
+	 * @param file A file in the tree.
+	 * @return The attributes of the file, or null if the file is not in the tree.
+	 */
+	public BasicFileAttributes getAttributes(File file) {
+		return attributes.get(file);
+	}
+
+	/**
+	 * Set the root path of this file tree and build it. The root path is made absolute and
+	 * given a trailing separator, so that it matches the keys of the tree.
 	 */
 	@Override
 	public void setRootPath(String filePath) {
@@ -112,33 +299,138 @@ public class FileTree extends PathMap<File[]> {
 			throw new IllegalArgumentException("The filePath parameter must reference a directory.");
 		
 		// Set the root path.
-		super.setRootPath(filePath);
+		super.setRootPath(keyFor(file));
+		numFiles = 0;
+		attributes.clear();
 		
 		// Traverse the files and build the tree.
-		ArrayDeque<File> todo = new ArrayDeque<File>();
-		todo.add(file);
-		File current;
-		while (todo.size() > 0) {
-			current = todo.pop();
-			File[] subFiles = current.listFiles();
-			for (int i = 0; i < subFiles.length; i++) {
-				if (subFiles[i].isDirectory()) {
-					todo.add(subFiles[i]);
-				}
-			}
-				
-			// Make a key and make sure it ends with a backslash.
-			String currentPath = current.getAbsolutePath();
-			if (currentPath.charAt(currentPath.length() - 1) != '\\')
-				currentPath += '\\';
+		addTree(file, null);
+	}
+	
+	/**
+	 * Add a directory and all of the directories below it to the tree.
+	 * 
+	 * @param directory The directory to add.
+	 * @param added If not null, the files that are added are added to this.
+	 */
+	private void addTree(File directory, List<File> added) {
+		// List the directories.
+		List<Listing> listings;
+		if (pool != null)
+			listings = pool.invoke(new ListTask(fileFilter, directory.toPath()));
+		else {
+			Lister lister = new Lister(fileFilter);
+			lister.walk(directory.toPath(), Integer.MAX_VALUE);
+			listings = lister.listings;
+		}
 				
-			// Make a value, place it in the tree, and add to the number
-			// of files in the tree.
-			File[] currentFiles = current.listFiles(fileFilter);
-			super.put(currentPath, currentFiles);
-			if (currentFiles != null)
-				numFiles += currentFiles.length;
+		// Place them in the tree.
+		for (Listing listing : listings) {
+			putListing(listing);
+			if (added != null)
+				added.addAll(listing.files);
+		}
+	}
+
+	/**
+	 * Place the listing of a directory in the tree, replacing any files it had before.
+	 * 
+	 * @param listing The listing to place.
+	 * @return The files the directory had before.
+	 */
+	private File[] putListing(Listing listing) {
+		String key = keyFor(listing.directory);
+		File[] oldFiles = get(key);
+		if (oldFiles != null) {
+			numFiles -= oldFiles.length;
+			for (int i = 0; i < oldFiles.length; i++)
+				attributes.remove(oldFiles[i]);
 		}
+
+		// Make a value, place it in the tree, and add to the number
+		// of files in the tree.
+		File[] currentFiles = listing.files.toArray(new File[listing.files.size()]);
+		super.put(key, currentFiles);
+		numFiles += currentFiles.length;
+		for (int i = 0; i < currentFiles.length; i++)
+			attributes.put(currentFiles[i], listing.attributes.get(i));
+		return (oldFiles != null) ? oldFiles : new File[0];
+	}
+	
+	/**
+	 * Add a directory that has appeared in the file system to the tree, along with all of the
+	 * directories below it. If the directory is already in the tree, it should be removed first.
+	 * 
+	 * @param directory The directory to add.
+	 * @return The files that were added to the tree.
+	 */
+	List<File> addDirectory(File directory) {
+		List<File> added = new ArrayList<File>();
+		addTree(directory, added);
+		return added;
+	}
+	
+	/**
+	 * Remove a directory that has disappeared from the file system from the tree, along with
+	 * all of the directories below it.
+	 * 
+	 * @param directory The directory to remove.
+	 * @return The files that were removed from the tree. This is empty if the directory was not in the tree.
+	 */
+	List<File> removeDirectory(File directory) {
+		List<File> removed = new ArrayList<File>();
+		removeTree(keyFor(directory), removed);
+		return removed;
+	}
+	
+	/**
+	 * Remove the node at a key and all of the nodes below it.
+	 * 
+	 * @param key The key of the node to remove.
+	 * @param removed The files that are removed are added to this.
+	 */
+	private void removeTree(String key, List<File> removed) {
+		String[] childKeys = getChildKeys(key);
+		if (childKeys == null)
+			return;
+		for (int i = 0; i < childKeys.length; i++)
+			removeTree(key + childKeys[i] + getSeparator(), removed);
+		File[] files = super.remove(key);
+		if (files != null) {
+			numFiles -= files.length;
+			for (int i = 0; i < files.length; i++)
+				attributes.remove(files[i]);
+			Collections.addAll(removed, files);
+		}
+	}
+	
+	/**
+	 * List the files of a directory in the tree again, without looking at the directories below it.
+	 * 
+	 * @param directory The directory to list again.
+	 * @return The files the directory held before, or null if the directory is not in the tree.
+	 */
+	File[] refreshDirectory(File directory) {
+		if (getChildKeys(keyFor(directory)) == null)
+			return null;
+		Lister lister = new Lister(fileFilter);
+		lister.walk(directory.toPath(), 1);
+		if (lister.listings.isEmpty())
+			lister.listings.add(new Listing(directory));
+		return putListing(lister.listings.get(0));
+	}
+		
+	/**
+	 * Get the key of a directory in a file tree.
+	 * 
+	 * @param directory The directory to get the key of.
+	 * @return The absolute path of the directory, ending with a separator.
+	 */
+	static String keyFor(File directory) {
+		String path = directory.getAbsolutePath();
+		if (path.charAt(path.length() - 1) != File.separatorChar)
+			path += File.separatorChar;
+		return path;
 	}
 		
 	/**
@@ -175,4 +467,4 @@ public class FileTree extends PathMap<File[]> {
 		return super.iterator();
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,299 @@
+package org.haferutil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a FileTree up to date with the file system. Every directory in the tree is watched, and
+ * when files are created, modified, or deleted only the directories they are in are listed again.
+ * Listeners are told which files changed, so that only those files need to be read again.
+ * <p>
+ * Changes are applied to the tree and reported to listeners on the thread that calls poll,
+ * so the tree should only be used on that thread while it is being watched.
+ *
+ * @author John Werner
+ *
+ */
+
+public class FileTreeWatcher implements AutoCloseable {
+
+	/**
+	 * The ways a file in a watched tree can change.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	public enum Change {
+		CREATED,
+		MODIFIED,
+		DELETED
+	}
+
+	/**
+	 * Listens for changes to the files in a watched tree.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a file in the tree changes. Only files that pass the filter of the tree are reported.
+		 *
+		 * @param file The file that changed.
+		 * @param change How the file changed.
+		 */
+		void fileChanged(File file, Change change);
+
+	}
+
+	private final FileTree tree;
+	private final WatchService watchService;
+	private final HashMap<WatchKey, Path> directories;	// The directory each key watches.
+	private final ArrayList<Listener> listeners;
+
+	/**
+	 * Start watching a tree. Changes made between when the tree was built and when this is made are not seen.
+	 *
+	 * @param tree The tree to keep up to date.
+	 * @throws IOException if the directories of the tree can't be watched.
+	 */
+	public FileTreeWatcher(FileTree tree) throws IOException {
+		this.tree = tree;
+		watchService = FileSystems.getDefault().newWatchService();
+		directories = new HashMap<>();
+		listeners = new ArrayList<>();
+		try {
+			register(new File(tree.getRootPath()).toPath());
+		}
+		catch (IOException e) {
+			watchService.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the tree being watched.
+	 *
+	 * @return The tree.
+	 */
+	public FileTree getTree() {
+		return tree;
+	}
+
+	/**
+	 * Add a listener to be told about changes to the tree.
+	 *
+	 * @param listener The listener to add.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener so it is no longer told about changes to the tree.
+	 *
+	 * @param listener The listener to remove.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Apply any changes that have happened to the tree and tell the listeners about them. Does not block.
+	 *
+	 * @return The number of changed files that were reported.
+	 * @throws IOException if a new directory can't be watched.
+	 */
+	public int poll() throws IOException {
+		int numChanges = 0;
+		WatchKey key;
+		while ((key = watchService.poll()) != null)
+			numChanges += process(key);
+		return numChanges;
+	}
+
+	/**
+	 * Wait for changes to happen, then apply them to the tree and tell the listeners about them.
+	 *
+	 * @param timeout The longest time to wait.
+	 * @param unit The unit of the timeout.
+	 * @return The number of changed files that were reported.
+	 * @throws IOException if a new directory can't be watched.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public int poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+		WatchKey key = watchService.poll(timeout, unit);
+		if (key == null)
+			return 0;
+		return process(key) + poll();
+	}
+
+	/**
+	 * Stop watching the tree.
+	 *
+	 * @throws IOException if the watch service fails to close.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * Apply the events of a directory to the tree.
+	 *
+	 * @param key The key of the directory.
+	 * @return The number of changed files that were reported.
+	 * @throws IOException if a new directory can't be watched.
+	 */
+	private int process(WatchKey key) throws IOException {
+		Path directory = directories.get(key);
+		if (directory == null) {
+			key.cancel();
+			return 0;
+		}
+
+		int numChanges = 0;
+		boolean overflow = false;
+		HashSet<File> modified = new HashSet<>();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			WatchEvent.Kind<?> kind = event.kind();
+			if (kind == StandardWatchEventKinds.OVERFLOW) {
+				overflow = true;
+				continue;
+			}
+
+			Path child = directory.resolve((Path)event.context());
+			if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+				// New directories are added with everything already in them.
+				if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+					register(child);
+					List<File> removed = tree.removeDirectory(child.toFile());
+					numChanges += report(removed, tree.addDirectory(child.toFile()), null);
+				}
+			}
+			else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+				// This does nothing if the child was a file.
+				List<File> removed = tree.removeDirectory(child.toFile());
+				if (!removed.isEmpty())
+					numChanges += report(removed, Collections.<File>emptyList(), null);
+				unregister(child);
+			}
+			else if (kind == StandardWatchEventKinds.ENTRY_MODIFY)
+				modified.add(child.toFile());
+		}
+
+		// A key that can't be reset is for a directory that was deleted, which its parent reports.
+		if (!key.reset()) {
+			directories.remove(key);
+			return numChanges;
+		}
+
+		// If events were lost, anything below the directory may have changed.
+		if (overflow) {
+			List<File> removed = tree.removeDirectory(directory.toFile());
+			register(directory);
+			List<File> added = tree.addDirectory(directory.toFile());
+			return numChanges + report(removed, added, null);
+		}
+
+		// Otherwise, only the files of the directory itself have changed.
+		File[] oldFiles = tree.refreshDirectory(directory.toFile());
+		if (oldFiles == null)
+			return numChanges;
+		File[] newFiles = tree.get(FileTree.keyFor(directory.toFile()));
+		return numChanges + report(Arrays.asList(oldFiles),
+				(newFiles != null) ? Arrays.asList(newFiles) : Collections.<File>emptyList(), modified);
+	}
+
+	/**
+	 * Tell the listeners how a set of files changed.
+	 *
+	 * @param before The files as they were.
+	 * @param after The files as they are now.
+	 * @param modified The files that were modified, or null if all of them may have been.
+	 * @return The number of changed files that were reported.
+	 */
+	private int report(Collection<File> before, Collection<File> after, Collection<File> modified) {
+		HashSet<File> oldFiles = new HashSet<>(before);
+		int numChanges = 0;
+		for (File file : after) {
+			if (!oldFiles.remove(file))
+				numChanges += notifyListeners(file, Change.CREATED);
+			else if (modified == null || modified.contains(file))
+				numChanges += notifyListeners(file, Change.MODIFIED);
+		}
+		for (File file : oldFiles)
+			numChanges += notifyListeners(file, Change.DELETED);
+		return numChanges;
+	}
+
+	/**
+	 * Tell the listeners about a change.
+	 *
+	 * @param file The file that changed.
+	 * @param change How it changed.
+	 * @return 1, the number of changes reported.
+	 */
+	private int notifyListeners(File file, Change change) {
+		for (int i = 0; i < listeners.size(); i++)
+			listeners.get(i).fileChanged(file, change);
+		return 1;
+	}
+
+	/**
+	 * Watch a directory and all of the directories below it.
+	 *
+	 * @param start The directory to start at.
+	 * @throws IOException if any of the directories can't be watched.
+	 */
+	private void register(Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				directories.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Stop watching a deleted directory and all of the directories below it.
+	 *
+	 * @param start The directory to start at.
+	 */
+	private void unregister(Path start) {
+		Iterator<Map.Entry<WatchKey, Path>> it = directories.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<WatchKey, Path> entry = it.next();
+			if (entry.getValue().startsWith(start)) {
+				entry.getKey().cancel();
+				it.remove();
+			}
+		}
+	}
+
+}
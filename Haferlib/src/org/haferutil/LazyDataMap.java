@@ -0,0 +1,165 @@
+package org.haferutil;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The fields of some input, whose values are only parsed when they are first looked at.
+ * The input is skimmed once to find where the value of each field starts; each value is then
+ * parsed from there the first time it is asked for, and kept so it is only parsed once.
+ * Iterating over the entries or values of the map parses everything that hasn't been parsed yet,
+ * but iterating over its keys does not.
+ * <p>
+ * Only the extent of each value is checked while skimming. A value with any other syntax error
+ * is reported when it is first looked at and is then null.
+ * <p>
+ * Looking at values changes the map, so it must not be shared between threads without synchronization.
+ *
+ * @author John Werner
+ *
+ */
+
+final class LazyDataMap extends AbstractMap<String, Object> {
+
+	/**
+	 * Stands in for a value that has not been parsed yet.
+	 *
+	 * @author John Werner
+	 *
+	 */
+	private static final class Unparsed {
+
+		private final int position;	// Where the value starts in the input.
+
+		private Unparsed(int position) {
+			this.position = position;
+		}
+
+	}
+
+	private final DataScanner input;				// Scans the input; it is only used to make scanners at values.
+	private final TreeMap<String, Object> fields;	// The values of the fields, or Unparsed where they haven't been parsed.
+
+	/**
+	 * Skim the fields of some input.
+	 *
+	 * @param input A scanner at the start of the input. The scanner must support scannerAt.
+	 * @throws IOException if an I/O error occurs while reading the input.
+	 */
+	LazyDataMap(final DataScanner input) throws IOException {
+		this.input = input;
+		fields = new TreeMap<>();
+		input.readFields(new DataScanner.FieldHandler() {
+			private int position;	// Where the value of the field being skimmed starts.
+
+			@Override
+			public boolean readField(String fieldName) throws IOException {
+				position = input.position();
+				return input.skipValue();
+			}
+
+			@Override
+			public void endField(String fieldName) {
+				fields.put(fieldName, new Unparsed(position));
+			}
+		});
+	}
+
+	@Override
+	public Object get(Object key) {
+		Object value = fields.get(key);
+		if (value instanceof Unparsed) {
+			value = parse((Unparsed)value);
+			fields.put((String)key, value);
+		}
+		return value;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return fields.containsKey(key);
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		return parse(fields.put(key, value));
+	}
+
+	@Override
+	public Object remove(Object key) {
+		return parse(fields.remove(key));
+	}
+
+	@Override
+	public int size() {
+		return fields.size();
+	}
+
+	@Override
+	public void clear() {
+		fields.clear();
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return fields.keySet();
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				final Iterator<Map.Entry<String, Object>> entries = fields.entrySet().iterator();
+				return new Iterator<Map.Entry<String, Object>>() {
+					@Override
+					public boolean hasNext() {
+						return entries.hasNext();
+					}
+
+					@Override
+					public Map.Entry<String, Object> next() {
+						Map.Entry<String, Object> entry = entries.next();
+						if (entry.getValue() instanceof Unparsed)
+							entry.setValue(parse((Unparsed)entry.getValue()));
+						return entry;
+					}
+
+					@Override
+					public void remove() {
+						entries.remove();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return fields.size();
+			}
+		};
+	}
+
+	/**
+	 * Parse a value if it hasn't been parsed yet.
+	 *
+	 * @param value A value, which may be Unparsed.
+	 * @return The parsed value, or null if it has a syntax error.
+	 */
+	private Object parse(Object value) {
+		if (!(value instanceof Unparsed))
+			return value;
+		try {
+			return input.scannerAt(((Unparsed)value).position).readValue();
+		}
+		catch (IOException e) {
+			// Scanners that support scannerAt never do any I/O of their own.
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -8,7 +8,8 @@ import java.util.regex.Pattern;
 
 /**
  * An NAry tree implementation that has string keys that look like file system paths.
- * Nodes have their children sorted by key.
+ * Nodes have their children sorted by key. The levels of keys are separated by backslashes
+ * unless another separator is given.
  * 
  * @author John Werner
  * 
@@ -73,7 +74,7 @@ public class PathMap<V> implements Iterable<V> {
 		}
 
 		public void removeChild(Node child) {
-			children.remove(child);
+			children.remove(child.key);
 		}
 
 		public boolean equals(Object o) {
@@ -101,7 +102,8 @@ public class PathMap<V> implements Iterable<V> {
 	}
 
 	// Instance fields.
-	private Pattern keySplitter;	// This is used to split keys around backslashes.
+	private char separator;			// The character that separates the levels of keys.
+	private Pattern keySplitter;	// This is used to split keys around the separator.
 	private String rootPath;		// This is removed from the start of keys before put and get operations.
 	private Node rootNode;			// The top node of this tree.
 	private int numNodes;			// Keeps track of the number of nodes in this tree.
@@ -111,7 +113,18 @@ public class PathMap<V> implements Iterable<V> {
 	 * constructed with this constructor.
 	 */
 	public PathMap() {
-		keySplitter = Pattern.compile("\\\\");
+		this('\\');
+	}
+
+	/**
+	 * Make an NAryTree whose keys are separated by the given character. setRootPath must be called
+	 * before performing any operations on a tree constructed with this constructor.
+	 * 
+	 * @param separator The character that separates the levels of keys.
+	 */
+	public PathMap(char separator) {
+		this.separator = separator;
+		keySplitter = Pattern.compile(Pattern.quote(String.valueOf(separator)));
 	}
 
 	/**
@@ -124,6 +137,17 @@ public class PathMap<V> implements Iterable<V> {
 		setRootPath(rootPath);
 	}
 
+	/**
+	 * Make an NAryTree with the given root path whose keys are separated by the given character.
+	 * 
+	 * @param rootPath The root path of keys in the tree, which is sent to setRootPath.
+	 * @param separator The character that separates the levels of keys.
+	 */
+	public PathMap(String rootPath, char separator) {
+		this(separator);
+		setRootPath(rootPath);
+	}
+
 	/**
 	 * Get the value at a given key.
 	 * 
@@ -156,7 +180,7 @@ public class PathMap<V> implements Iterable<V> {
 		if (key.startsWith(rootPath))
 			key = key.substring(rootPath.length());
 
-		// Then, the key is broken into its levels, which are separated by backslashes. Much like a filesystem.
+		// Then, the key is broken into its levels, which are separated by the separator. Much like a filesystem.
 		String[] levels = keySplitter.split(key);
 
 		// Then the nodes are looped through to find the appropriate one.
@@ -256,16 +280,17 @@ public class PathMap<V> implements Iterable<V> {
 		if (node.getNumChildren() == 0) {
 			// Get the key of the parent of this.
 			String parentKey;
-			if (key.endsWith("\\"))
+			if (key.charAt(key.length() - 1) == separator)
 				parentKey = key.substring(0, key.length() - 1);
 			else
 				parentKey = key;
-			parentKey = parentKey.substring(0, parentKey.lastIndexOf('\\'));
+			parentKey = parentKey.substring(0, parentKey.lastIndexOf(separator) + 1);
 			
 			// Remove the node from the parent node.
 			Node parentNode = getNode(parentKey);
 			if (parentNode != null) {
 				parentNode.removeChild(node);
+				numNodes--;
 			}
 		}
 		
@@ -273,6 +298,15 @@ public class PathMap<V> implements Iterable<V> {
 		return out;
 	}
 	
+	/**
+	 * Get the character that separates the levels of keys in this tree.
+	 * 
+	 * @return The separator.
+	 */
+	public char getSeparator() {
+		return separator;
+	}
+	
 	/**
 	 * Get the root path of this tree.
 	 * 
@@ -21,7 +21,7 @@ public class Paths {
 		String path = new File("").getAbsolutePath();
 		System.out.println(path);
 		path = path.substring(0, path.lastIndexOf(folderName) + folderName.length());
-		path += '\\';
+		path += File.separatorChar;
 		gamePath = path;
 		System.out.println(gamePath);
 	}
@@ -0,0 +1,80 @@
+package org.haferutil;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A DataScanner that pulls characters from a Reader through a fixed size buffer, so the input
+ * never has to be held in memory all at once.
+ *
+ * @author John Werner
+ *
+ */
+
+final class ReaderDataScanner extends DataScanner {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader reader;	// Where characters come from.
+	private final char[] buffer;	// The characters that have been pulled from the reader.
+	private int position;			// The index in the buffer of the next character.
+	private int limit;				// The number of valid characters in the buffer.
+	private int bufferStart;		// The offset in the input of the first character in the buffer.
+
+	/**
+	 * Make a scanner that reads from a reader.
+	 *
+	 * @param reader The reader to scan.
+	 */
+	ReaderDataScanner(Reader reader) {
+		this.reader = reader;
+		buffer = new char[BUFFER_SIZE];
+	}
+
+	@Override
+	protected int peek() throws IOException {
+		if (position == limit && !fill())
+			return END;
+		return buffer[position];
+	}
+
+	@Override
+	protected int read() throws IOException {
+		if (position == limit && !fill())
+			return END;
+		return buffer[position++];
+	}
+
+	@Override
+	protected int position() {
+		return bufferStart + position;
+	}
+
+	@Override
+	protected int charAt(int offset) {
+		return buffer[offset - bufferStart];
+	}
+
+	/**
+	 * Refill the buffer from the reader.
+	 *
+	 * @return False if the reader has no characters left.
+	 * @throws IOException if the reader fails.
+	 */
+	private boolean fill() throws IOException {
+		// Lines can't be counted once the characters in the buffer are replaced. They are counted
+		// even if errors aren't reported yet, since a DataCursor can start reporting them later.
+		countLines(bufferStart + limit);
+		int numRead;
+		do {
+			numRead = reader.read(buffer, 0, buffer.length);
+		} while (numRead == 0);
+		if (numRead < 0)
+			return false;
+		bufferStart += limit;
+		position = 0;
+		limit = numRead;
+		return true;
+	}
+
+}
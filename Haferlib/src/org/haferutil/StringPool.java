@@ -0,0 +1,141 @@
+package org.haferutil;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of strings that lets equal strings share one instance, like String.intern but bounded
+ * and owned by the caller. Data that repeats the same field names and string values many times
+ * keeps only one copy of each when it is read with a pool.
+ * <p>
+ * The pool holds at most a fixed number of strings, and does not hold strings longer than a
+ * fixed length, since long strings are rarely repeated. Once it is full, strings that aren't
+ * already in it are returned as they are. A StringPool may be shared between threads.
+ *
+ * @author John Werner
+ *
+ */
+
+public class StringPool {
+
+	/**
+	 * The default most strings that a pool holds.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	/**
+	 * The default length of the longest string that a pool holds.
+	 */
+	public static final int DEFAULT_MAX_LENGTH = 128;
+
+	private final ConcurrentHashMap<String, String> strings;
+	private final int capacity;			// The most strings to hold.
+	private final int maxLength;		// The length of the longest string to hold.
+	private final AtomicInteger size;	// The number of strings held.
+	private final AtomicLong hits;		// The number of strings that were replaced by one in the pool.
+	private final AtomicLong bytesSaved;	// The estimated size of the strings that were replaced.
+
+	/**
+	 * Make a pool with the default capacity and maximum length.
+	 */
+	public StringPool() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * Make a pool.
+	 *
+	 * @param capacity The most strings the pool holds.
+	 * @param maxLength The length of the longest string the pool holds.
+	 */
+	public StringPool(int capacity, int maxLength) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("The capacity parameter must not be negative.");
+		if (maxLength < 0)
+			throw new IllegalArgumentException("The maxLength parameter must not be negative.");
+		strings = new ConcurrentHashMap<>();
+		this.capacity = capacity;
+		this.maxLength = maxLength;
+		size = new AtomicInteger();
+		hits = new AtomicLong();
+		bytesSaved = new AtomicLong();
+	}
+
+	/**
+	 * Get the instance in the pool of a string, adding the string to the pool if it isn't there.
+	 *
+	 * @param string The string to look for.
+	 * @return An equal string from the pool, or the given string if the pool doesn't hold an equal one.
+	 */
+	public String intern(String string) {
+		if (string.length() > maxLength)
+			return string;
+
+		String pooled = strings.get(string);
+		if (pooled != null) {
+			countHit(pooled);
+			return pooled;
+		}
+
+		// Reserve room for the string before adding it, so the pool never grows past its capacity.
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			return string;
+		}
+		pooled = strings.putIfAbsent(string, string);
+		if (pooled != null) {
+			size.decrementAndGet();
+			countHit(pooled);
+			return pooled;
+		}
+		return string;
+	}
+
+	/**
+	 * Get the number of strings in the pool.
+	 *
+	 * @return The size of the pool.
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Get the number of strings that were replaced by an equal string from the pool.
+	 *
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get an estimate of the memory saved by replacing strings with equal strings from the pool.
+	 * Each replaced string is counted as 40 bytes of overhead plus two bytes per character.
+	 *
+	 * @return The estimated number of bytes saved.
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	/**
+	 * Empty the pool. The counts of hits and bytes saved are kept.
+	 */
+	public void clear() {
+		strings.clear();
+		size.set(0);
+	}
+
+	/**
+	 * Count a string being replaced by one from the pool.
+	 *
+	 * @param pooled The string from the pool.
+	 */
+	private void countHit(String pooled) {
+		hits.incrementAndGet();
+		bytesSaved.addAndGet(40 + 2L * pooled.length());
+	}
+
+}
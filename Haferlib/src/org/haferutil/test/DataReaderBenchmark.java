@@ -0,0 +1,68 @@
+package org.haferutil.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.haferutil.DataReader;
+
+public class DataReaderBenchmark {
+
+	private static final int NUM_FIELDS = 20000;
+	private static final int NUMBERS_PER_FIELD = 16;
+	private static final int NUM_RUNS = 20;
+
+	public static void main(String[] args) throws Exception {
+		// Make some number heavy data.
+		Random random = new Random(0);
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < NUM_FIELDS; i++) {
+			data.append("field").append(i).append(" = { ");
+			for (int q = 0; q < NUMBERS_PER_FIELD; q++) {
+				if (q % 2 == 0)
+					data.append(random.nextInt(2000000) - 1000000);
+				else
+					data.append(random.nextInt(10000)).append('.').append(random.nextInt(1000));
+				data.append(", ");
+			}
+			data.append("};\n");
+		}
+		final String rawData = data.toString();
+		final DataReader reader = DataReader.getDefaultReader();
+		double megabytes = rawData.length() / (1024.0 * 1024.0);
+
+		// Read it on one thread.
+		for (int i = 0; i < NUM_RUNS; i++) {
+			long start = System.nanoTime();
+			reader.readString(rawData);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("1 thread: %.1f ms, %.1f MB/s%n", seconds * 1000, megabytes / seconds);
+		}
+
+		// Read it on every processor at once with the same reader.
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		List<Callable<Object>> reads = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++) {
+			reads.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					return reader.readString(rawData);
+				}
+			});
+		}
+		for (int i = 0; i < NUM_RUNS; i++) {
+			long start = System.nanoTime();
+			for (Future<Object> f : executor.invokeAll(reads))
+				f.get();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d threads: %.1f ms, %.1f MB/s%n", numThreads, seconds * 1000, numThreads * megabytes / seconds);
+		}
+		executor.shutdown();
+	}
+
+}